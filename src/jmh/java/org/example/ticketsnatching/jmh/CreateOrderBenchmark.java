@@ -0,0 +1,56 @@
+package org.example.ticketsnatching.jmh;
+
+import org.example.ticketsnatching.DatabaseManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DatabaseManager.createOrderInDB 建单 (扣库存 + 写订单表 + 维护索引)</br>
+ * 比较并发模式 (全局锁 / CAS) 与订单表存储方式 (对象 / 紧凑数组)。</br>
+ * 每轮迭代固定建单 (单次计时模式)，迭代之间清空订单表。batchSize 是每个线程的调用次数，</br>
+ * 一轮共建 BATCH * 线程数 个订单，按这个数预分配订单表，测量期间不发生扩容。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, batchSize = CreateOrderBenchmark.BATCH)
+@Measurement(iterations = 10, batchSize = CreateOrderBenchmark.BATCH)
+@Fork(1)
+public class CreateOrderBenchmark {
+    static final int BATCH = 200_000;
+    private static final String PRODUCT_ID = "jmh-product";
+
+    @Param({"GLOBAL_LOCK", "STRIPED"})
+    public DatabaseManager.ConcurrencyMode concurrencyMode;
+
+    @Param({"MAP", "COMPACT"})
+    public DatabaseManager.OrderTableType orderTableType;
+
+    @Setup(Level.Iteration)
+    public void setup(BenchmarkParams params) {
+        DatabaseManager.clear();
+        DatabaseManager.setConcurrencyMode(concurrencyMode);
+        DatabaseManager.setOrderTableType(orderTableType);
+        DatabaseManager.reserveOrderCapacity(BATCH * params.getThreads());
+        // 库存足够大，测的是建单本身而不是库存不足的快速失败
+        DatabaseManager.initProduct(PRODUCT_ID, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public boolean createOrder() {
+        return DatabaseManager.createOrderInDB(DatabaseManager.nextOrderId(), PRODUCT_ID, "jmh-user");
+    }
+}
@@ -0,0 +1,50 @@
+package org.example.ticketsnatching.jmh;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JMH基准测试入口</br>
+ * mvn -P jmh package 之后运行：java -jar target/benchmarks.jar [基准测试名正则]</br>
+ * 线程数依次取 1、2、4 ... 直到CPU核数，每种线程数单独运行一轮，开启GC分析 (分配速率、每次操作分配的字节数、GC次数)，</br>
+ * 结果以JSON写入 target/jmh/result-{线程数}t.json，不同版本的结果文件可以直接对比。</br>
+ * 需要JMH原生命令行参数时可以直接用 org.openjdk.jmh.Main，例如：</br>
+ * java -cp target/benchmarks.jar org.openjdk.jmh.Main BoundedBuffer -t 4 -prof gc -rf json -rff result.json
+ */
+public class JmhRunner {
+    public static void main(String[] args) throws RunnerException, IOException {
+        String include = args.length > 0 ? args[0] : "org.example.ticketsnatching.jmh.*";
+        Path resultDir = Path.of("target", "jmh");
+        Files.createDirectories(resultDir);
+        for (int threads : threadCounts(Runtime.getRuntime().availableProcessors())) {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(resultDir.resolve("result-" + threads + "t.json").toString())
+                    .build();
+            new Runner(options).run();
+        }
+    }
+
+    // 1, 2, 4 ... 以及核数本身
+    static List<Integer> threadCounts(int cores) {
+        List<Integer> counts = new ArrayList<>();
+        for (int threads = 1; threads < cores; threads *= 2) {
+            counts.add(threads);
+        }
+        counts.add(cores);
+        return counts;
+    }
+}
@@ -0,0 +1,64 @@
+package org.example.ticketsnatching.jmh;
+
+import org.example.ticketsnatching.MessageCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订单消费者的消息解析</br>
+ * 二进制编码 (MessageCodec) 与原来的字符串消息 "userId:productId" (new String + split) 对比，</br>
+ * 配合 -prof gc 可以看到每条消息分配的字节数。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageParsingBenchmark {
+    private static final String USER_ID = "user-1234567";
+    private static final String PRODUCT_ID = "notebook";
+
+    private byte[] binaryMessage;
+    private byte[] stringMessage;
+
+    @Setup
+    public void setup() {
+        binaryMessage = MessageCodec.encodeOrderRequest(USER_ID, PRODUCT_ID);
+        stringMessage = (USER_ID + ":" + PRODUCT_ID).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public MessageCodec.OrderRequest decodeBinary() {
+        return MessageCodec.decodeOrderRequest(binaryMessage);
+    }
+
+    @Benchmark
+    public void decodeString(Blackhole blackhole) {
+        String[] parts = new String(stringMessage, StandardCharsets.UTF_8).split(":");
+        blackhole.consume(parts[0]);
+        blackhole.consume(parts[1]);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return MessageCodec.encodeOrderRequest(USER_ID, PRODUCT_ID);
+    }
+
+    @Benchmark
+    public byte[] encodeString() {
+        return (USER_ID + ":" + PRODUCT_ID).getBytes(StandardCharsets.UTF_8);
+    }
+}
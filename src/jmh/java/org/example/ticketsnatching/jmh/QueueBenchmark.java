@@ -0,0 +1,90 @@
+package org.example.ticketsnatching.jmh;
+
+import org.example.aqs.BoundedBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * aqs.BoundedBuffer 与JDK阻塞队列的对比</br>
+ * 所有线程共享一个队列，每次操作先 put 再 take 一个元素：队列容量 (100) 不小于线程数时不会永久阻塞，</br>
+ * 测的是多线程在同一把锁 (或CAS) 上交替入队出队的开销。</br>
+ * BoundedBuffer 与 ArrayBlockingQueue 都是一把锁两个条件队列，LinkedTransferQueue 是无锁的链表队列。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueueBenchmark {
+    private static final int CAPACITY = 100;
+    private static final Object ITEM = new Object();
+
+    @Param({"BoundedBuffer", "ArrayBlockingQueue", "LinkedTransferQueue"})
+    public String queueType;
+
+    private BufferAdapter buffer;
+
+    private interface BufferAdapter {
+        void put(Object item) throws InterruptedException;
+
+        Object take() throws InterruptedException;
+    }
+
+    @Setup
+    public void setup() {
+        buffer = switch (queueType) {
+            case "BoundedBuffer" -> {
+                BoundedBuffer boundedBuffer = new BoundedBuffer();
+                yield new BufferAdapter() {
+                    @Override
+                    public void put(Object item) throws InterruptedException {
+                        boundedBuffer.put(item);
+                    }
+
+                    @Override
+                    public Object take() throws InterruptedException {
+                        return boundedBuffer.take();
+                    }
+                };
+            }
+            case "ArrayBlockingQueue" -> of(new ArrayBlockingQueue<>(CAPACITY));
+            case "LinkedTransferQueue" -> of(new LinkedTransferQueue<>());
+            default -> throw new IllegalArgumentException("未知的队列类型: " + queueType);
+        };
+    }
+
+    private static BufferAdapter of(BlockingQueue<Object> queue) {
+        return new BufferAdapter() {
+            @Override
+            public void put(Object item) throws InterruptedException {
+                queue.put(item);
+            }
+
+            @Override
+            public Object take() throws InterruptedException {
+                return queue.take();
+            }
+        };
+    }
+
+    @Benchmark
+    public Object putTake() throws InterruptedException {
+        buffer.put(ITEM);
+        return buffer.take();
+    }
+}
@@ -0,0 +1,60 @@
+package org.example.ticketsnatching.jmh;
+
+import org.example.ticketsnatching.SoldOutIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 售罄快速失败检查 (原布隆过滤器检查，现为 SoldOutIndex)</br>
+ * 一半商品已售罄，线程随机查询商品；另测 售罄 -> 重新开放 的状态翻转开销 (库存归还路径)。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SoldOutCheckBenchmark {
+    @Param({"16", "100000"})
+    public int products;
+
+    private SoldOutIndex index;
+    private String[] productIds;
+
+    @Setup
+    public void setup() {
+        index = new SoldOutIndex();
+        productIds = new String[products];
+        for (int i = 0; i < products; i++) {
+            productIds[i] = "product-" + i;
+            if (i % 2 == 0) {
+                index.markSoldOut(productIds[i], index.observe(productIds[i]));
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean isSoldOut() {
+        return index.isSoldOut(productIds[ThreadLocalRandom.current().nextInt(products)]);
+    }
+
+    @Benchmark
+    public boolean markAndReopen() {
+        String productId = productIds[ThreadLocalRandom.current().nextInt(products)];
+        boolean marked = index.markSoldOut(productId, index.observe(productId));
+        index.reopen(productId);
+        return marked;
+    }
+}
@@ -0,0 +1,116 @@
+package org.example.ticketsnatching;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 秒杀请求的准入控制，在访问库存 (Redis) 和发送消息之前拒绝超额流量</br>
+ * 1. 每个用户一个令牌桶：限制单个用户 (脚本、刷单) 的请求速率</br>
+ * 2. 全局令牌桶：限制整个节点进入库存扣减的速率，让Redis的负载接近真实需求</br>
+ * 先检查用户再检查全局，被用户限流的请求不消耗全局令牌。两个令牌桶都是无锁的 (见 {@link TokenBucket})。</br>
+ * 用户令牌桶放在有上限的表里，清理线程定期移除空闲超过 {@link Config#ADMISSION_USER_IDLE_MS} 的桶 (桶已回满，移除不影响限流)；</br>
+ * 表满时新用户的请求被拒绝，内存占用有上限。清理与取令牌并发时，用户最多多得到一次突发额度。
+ */
+@Slf4j
+public class AdmissionController implements AutoCloseable {
+    public enum Decision {
+        ADMITTED,
+        // 用户请求过于频繁
+        USER_LIMITED,
+        // 节点整体请求过多
+        GLOBAL_LIMITED,
+        // 用户令牌桶表已满
+        USER_TABLE_FULL
+    }
+
+    private final TokenBucket globalBucket;
+    private final ConcurrentHashMap<String, TokenBucket> userBuckets = new ConcurrentHashMap<>();
+    private final double userRatePerSecond;
+    private final int userBurst;
+    private final int maxUsers;
+    private final long userIdleNanos;
+    private final ScheduledExecutorService sweeper;
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder userLimited = new LongAdder();
+    private final LongAdder globalLimited = new LongAdder();
+    private final LongAdder userTableFull = new LongAdder();
+
+    public AdmissionController(double globalRatePerSecond, int globalBurst, double userRatePerSecond, int userBurst,
+                               int maxUsers, long userIdleMillis) {
+        this.globalBucket = new TokenBucket(globalRatePerSecond, globalBurst, System.nanoTime());
+        this.userRatePerSecond = userRatePerSecond;
+        this.userBurst = userBurst;
+        this.maxUsers = maxUsers;
+        this.userIdleNanos = TimeUnit.MILLISECONDS.toNanos(userIdleMillis);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "admission-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long sweepInterval = Math.max(1, userIdleMillis / 2);
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public static AdmissionController fromConfig() {
+        return new AdmissionController(Config.ADMISSION_GLOBAL_RATE, Config.ADMISSION_GLOBAL_BURST,
+                Config.ADMISSION_USER_RATE, Config.ADMISSION_USER_BURST,
+                Config.ADMISSION_MAX_USERS, Config.ADMISSION_USER_IDLE_MS);
+    }
+
+    public Decision tryAdmit(String userId) {
+        long now = System.nanoTime();
+        TokenBucket userBucket = userBuckets.get(userId);
+        if (userBucket == null) {
+            // mappingCount 只累加计数单元，不遍历表
+            if (userBuckets.mappingCount() >= maxUsers) {
+                userTableFull.increment();
+                return Decision.USER_TABLE_FULL;
+            }
+            userBucket = userBuckets.computeIfAbsent(userId, k -> new TokenBucket(userRatePerSecond, userBurst, now));
+        }
+        if (!userBucket.tryAcquire(now)) {
+            userLimited.increment();
+            return Decision.USER_LIMITED;
+        }
+        if (!globalBucket.tryAcquire(now)) {
+            globalLimited.increment();
+            return Decision.GLOBAL_LIMITED;
+        }
+        admitted.increment();
+        return Decision.ADMITTED;
+    }
+
+    public int trackedUsers() {
+        return userBuckets.size();
+    }
+
+    private void sweep() {
+        try {
+            long now = System.nanoTime();
+            int before = userBuckets.size();
+            userBuckets.values().removeIf(bucket -> bucket.isIdle(now, userIdleNanos));
+            int removed = before - userBuckets.size();
+            if (removed > 0) {
+                log.debug("[准入控制] 清理 {} 个空闲用户令牌桶，剩余 {} 个", removed, userBuckets.size());
+            }
+        } catch (RuntimeException e) {
+            log.error("[准入控制] 清理用户令牌桶失败", e);
+        }
+    }
+
+    public void logStats() {
+        log.info("[准入控制] 放行 {}，用户限流 {}，全局限流 {}，用户表已满 {}，当前跟踪用户 {}",
+                admitted.sum(), userLimited.sum(), globalLimited.sum(), userTableFull.sum(), userBuckets.size());
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+        logStats();
+    }
+}
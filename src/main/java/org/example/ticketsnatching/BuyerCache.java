@@ -0,0 +1,96 @@
+package org.example.ticketsnatching;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis购买用户集合的本地缓存 (只缓存"已购买")</br>
+ * 扣减脚本返回成功或重复后记录用户，同一用户的后续请求直接判定重复，不再访问Redis。</br>
+ * 缓存只会漏判不会误判：每个商品最多缓存 maxEntries 个用户，满了不再加入；</br>
+ * 本节点归还库存时移除对应用户，其他节点归还的用户最多在 ttl 后过期，过期前被当作重复拒绝。</br>
+ * 过期的用户除了在查询时移除，清理线程每半个 ttl 清理一遍 (与 {@link AdmissionController} 相同)，</br>
+ * 不再被查询的过期用户不会一直占着名额，缓存满了之后最多半个 ttl 就能重新加入新用户。</br>
+ * 查询只有两次哈希查找，不分配对象。
+ */
+@Slf4j
+public class BuyerCache implements AutoCloseable {
+    private final Map<String, Map<String, Long>> buyers = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final ScheduledExecutorService sweeper;
+
+    public BuyerCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "buyer-cache-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long sweepInterval = Math.max(1, ttlMillis / 2);
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean contains(String productId, String userId) {
+        Map<String, Long> cached = buyers.get(productId);
+        if (cached == null) {
+            return false;
+        }
+        Long expiresAt = cached.get(userId);
+        if (expiresAt == null) {
+            return false;
+        }
+        if (System.nanoTime() - expiresAt >= 0) {
+            cached.remove(userId, expiresAt);
+            return false;
+        }
+        return true;
+    }
+
+    public void add(String productId, String userId) {
+        Map<String, Long> cached = buyers.computeIfAbsent(productId, k -> new ConcurrentHashMap<>());
+        if (cached.size() < maxEntries) {
+            cached.put(userId, System.nanoTime() + ttlNanos);
+        }
+    }
+
+    public void removeAll(String productId, Collection<String> userIds) {
+        Map<String, Long> cached = buyers.get(productId);
+        if (cached != null) {
+            userIds.forEach(cached::remove);
+        }
+    }
+
+    public void clear(String productId) {
+        buyers.remove(productId);
+    }
+
+    // 移除所有商品中已过期的用户；与查询、加入并发时按条目处理，不影响其他用户
+    private void sweep() {
+        try {
+            long now = System.nanoTime();
+            int removed = 0;
+            for (Map<String, Long> cached : buyers.values()) {
+                int before = cached.size();
+                cached.values().removeIf(expiresAt -> now - expiresAt >= 0);
+                removed += before - cached.size();
+            }
+            if (removed > 0) {
+                log.debug("[购买缓存] 清理 {} 个过期用户", removed);
+            }
+        } catch (RuntimeException e) {
+            log.error("[购买缓存] 清理过期用户失败", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+    }
+}
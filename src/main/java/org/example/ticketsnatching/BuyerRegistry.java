@@ -0,0 +1,43 @@
+package org.example.ticketsnatching;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内的购买用户记录 (每个商品一个并发集合)</br>
+ * 库存在本地分配时 (进程内库存、库存段模式) 由它保证一个用户只能抢到一次：先登记用户再扣减库存，扣减失败再移除。</br>
+ * 只有抢到库存的用户留在集合里，集合大小不超过商品库存。库存段模式下只对本节点有效。
+ */
+public class BuyerRegistry {
+    private final Map<String, Set<String>> buyers = new ConcurrentHashMap<>();
+
+    // 登记用户，已经登记过返回false
+    public boolean tryAdd(String productId, String userId) {
+        return buyers.computeIfAbsent(productId, k -> ConcurrentHashMap.newKeySet()).add(userId);
+    }
+
+    public boolean contains(String productId, String userId) {
+        Set<String> set = buyers.get(productId);
+        return set != null && set.contains(userId);
+    }
+
+    public void remove(String productId, String userId) {
+        Set<String> set = buyers.get(productId);
+        if (set != null) {
+            set.remove(userId);
+        }
+    }
+
+    public void removeAll(String productId, Collection<String> userIds) {
+        Set<String> set = buyers.get(productId);
+        if (set != null) {
+            userIds.forEach(set::remove);
+        }
+    }
+
+    public void clear(String productId) {
+        buyers.remove(productId);
+    }
+}
@@ -1,12 +1,10 @@
 package org.example.ticketsnatching;
 
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.DeliverCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 import static org.example.ticketsnatching.Config.MANUAL_CANCEL_QUEUE;
 
@@ -15,30 +13,47 @@ import static org.example.ticketsnatching.Config.MANUAL_CANCEL_QUEUE;
  */
 public class CancellationConsumer implements Runnable {
     private static final Logger log = LoggerFactory.getLogger(CancellationConsumer.class);
+    private final StockStore stockStore;
+
+    public CancellationConsumer(StockStore stockStore) {
+        this.stockStore = stockStore;
+    }
 
     @Override
     public void run() {
         try {
-            Channel channel = MQManager.getChannel();
             log.info("手动取消消费者启动，等待消息...");
-
-            DeliverCallback deliverCallback = (consumerTag, delivery) -> {
-                String orderId = new String(delivery.getBody(), StandardCharsets.UTF_8);
-                log.info("[取消消费者] 收到手动取消请求，订单ID: {}", orderId);
-
-                DatabaseManager.Order order = DatabaseManager.getOrder(orderId);
-                if (order != null && "AwaitingPayment".equals(order.status)) {
-                    DatabaseManager.updateOrderStatusInDB(orderId, "Cancelled");
-                    DatabaseManager.increaseStockInDB(order.productId);
-                    log.info("[取消消费者] 订单 {} 已成功取消并归还库存", orderId);
-                } else {
-                    log.warn("[取消消费者] 订单 {} 无法取消，当前状态: {}", orderId, order != null ? order.status : "不存在");
-                }
-                channel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
-            };
-            channel.basicConsume(MANUAL_CANCEL_QUEUE, false, deliverCallback, consumerTag -> {});
+            MQManager.startConsumer(MANUAL_CANCEL_QUEUE, Config.CANCEL_CONSUMER_PREFETCH, Config.CANCEL_CONSUMER_WORKERS,
+                    acknowledger -> (body, deliveryTag) -> handle(acknowledger, body, deliveryTag));
         } catch (IOException e) {
             log.error("手动取消消费者异常", e);
         }
     }
+
+    // 处理并确认，每个消费者的确认互不影响
+    private void handle(MessageBus.Acknowledger acknowledger, byte[] body, long deliveryTag) throws IOException {
+        long orderId;
+        try {
+            // 订单ID由用户提交，不是数字时按无法解析处理 (NumberFormatException 是 IllegalArgumentException)
+            orderId = Long.parseLong(MessageCodec.decodeCancel(body));
+        } catch (IllegalArgumentException e) {
+            log.error("[取消消费者] 无法解析的取消消息，已丢弃", e);
+            acknowledger.ack(deliveryTag, false);
+            return;
+        }
+        log.info("[取消消费者] 收到手动取消请求，订单ID: {}", orderId);
+
+        DatabaseManager.Order order = DatabaseManager.getOrder(orderId);
+        // CAS流转状态，与超时取消、支付并发时只有一方成功，避免重复归还库存
+        if (order != null && DatabaseManager.transitionOrderStatus(orderId, OrderStatus.AWAITING_PAYMENT, OrderStatus.CANCELLED)) {
+            TimeoutManager.cancel(orderId);
+            DatabaseManager.increaseStockInDB(order.productId);
+            // 归还预扣减的库存并重新开放商品，让库存可以被再次抢购
+            stockStore.returnStock(order.productId, List.of(order.userId));
+            log.info("[取消消费者] 订单 {} 已成功取消并归还库存", orderId);
+        } else {
+            log.warn("[取消消费者] 订单 {} 无法取消，当前状态: {}", orderId, order != null ? order.getStatus() : "不存在");
+        }
+        acknowledger.ack(deliveryTag, false);
+    }
 }
\ No newline at end of file
@@ -11,7 +11,7 @@ public class CancellationService {
     public static void cancelOrder(String orderId) {
         log.info("[取消服务] 用户正在手动取消订单 {}", orderId);
         try {
-            MQManager.sendMessage(Config.ORDER_EXCHANGE, Config.MANUAL_CANCEL_ROUTING_KEY, orderId);
+            MQManager.sendMessage(Config.ORDER_EXCHANGE, Config.MANUAL_CANCEL_ROUTING_KEY, MessageCodec.encodeCancel(orderId));
         } catch (IOException e) {
             log.error("发送手动取消消息失败", e);
         }
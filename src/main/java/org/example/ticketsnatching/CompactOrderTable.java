@@ -0,0 +1,314 @@
+package org.example.ticketsnatching;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * 紧凑订单表</br>
+ * 订单按写入顺序占用一个槽位，各字段存放在基本类型的并行数组中：</br>
+ * 订单ID (long)、商品ID字典编号 (int)、用户ID字典编号 (int)、状态 (byte)，每个订单约17字节，</br>
+ * 再加上开放寻址的 订单ID → 槽位 索引 (负载因子不超过0.5，约24字节)，不再为每个订单保存 Order 对象和订单ID字符串。</br>
+ * 商品和用户的字符串按字典保存一份，字典每个新字符串约100字节：一人一单时用户各不相同，字典成为主要开销，</br>
+ * 订单表本身约140字节/订单，对象订单表约240字节/订单；同一用户的订单越多，字典的开销分摊得越少。</br>
+ * 订单二级索引 (OrderIndex) 不在这里，它的占用与订单表的实现无关 (见 benchmark.OrderTableFootprintBenchmark)。</br>
+ * </br>
+ * 扩容：数组按段分配，第一段容量为创建时的初始容量，写满后追加一个容量翻倍的新段，已有的段不搬迁；</br>
+ * 新订单只写最后一段，查询从最新的段往前找 (段数是容量的对数级，几十万订单只有一两段)。</br>
+ * 并发：段内槽位通过 AtomicInteger 分配，字段写完后才把槽位号以 release 语义发布到索引，</br>
+ * 查询方以 acquire 语义读到槽位号后即可看到完整的字段；状态字节通过 VarHandle CAS 流转；追加新段时加锁 (只在扩容时发生)。</br>
+ * 订单ID在其他字段之后以 release 语义写入槽位，遍历 (快照、重建库存) 按槽位顺序以 acquire 语义读到非0的订单ID即可，不必逐个查索引。</br>
+ * 订单ID必须是正整数 (0 表示空位)，同一订单ID只插入一次 (新订单的ID由生成器分配，日志重放时先查后插)。
+ */
+class CompactOrderTable implements OrderTable {
+    private static final VarHandle STATUS = MethodHandles.arrayElementVarHandle(byte[].class);
+    private static final VarHandle ORDER_ID = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final OrderStatus[] STATUS_VALUES = OrderStatus.values();
+    // 单段最大容量，索引大小为容量的2~4倍，不能超过int数组上限；更大的初始容量由调用方截断到这个值
+    static final int MAX_SEGMENT_CAPACITY = 1 << 28;
+
+    private final int initialCapacity;
+    private volatile Segment[] segments;
+
+    private final StringDictionary products = new StringDictionary();
+    private final StringDictionary users = new StringDictionary();
+
+    CompactOrderTable(int initialCapacity) {
+        if (initialCapacity <= 0 || initialCapacity > MAX_SEGMENT_CAPACITY) {
+            throw new IllegalArgumentException("紧凑订单表初始容量应在 1 ~ " + MAX_SEGMENT_CAPACITY + " 之间: " + initialCapacity);
+        }
+        this.initialCapacity = initialCapacity;
+        this.segments = new Segment[]{new Segment(initialCapacity)};
+    }
+
+    @Override
+    public void insert(long orderId, String productId, String userId, OrderStatus status) {
+        if (orderId <= 0) {
+            throw new IllegalArgumentException("紧凑订单表要求订单ID为正整数: " + orderId);
+        }
+        insert(orderId, products.intern(productId), users.intern(userId), (byte) status.ordinal());
+    }
+
+    private void insert(long orderId, int productRef, int userRef, byte status) {
+        while (true) {
+            Segment[] current = segments;
+            if (current[current.length - 1].tryInsert(orderId, productRef, userRef, status)) {
+                return;
+            }
+            grow(current);
+        }
+    }
+
+    // 最后一段已满：追加一个容量翻倍的段 (其他线程已经追加过则直接返回重试)
+    private synchronized void grow(Segment[] full) {
+        if (segments != full) {
+            return;
+        }
+        int capacity = full[full.length - 1].capacity;
+        Segment[] next = new Segment[full.length + 1];
+        System.arraycopy(full, 0, next, 0, full.length);
+        next[full.length] = new Segment((int) Math.min(MAX_SEGMENT_CAPACITY, capacity * 2L));
+        segments = next;
+    }
+
+    @Override
+    public DatabaseManager.Order get(long orderId) {
+        Segment[] current = segments;
+        for (int i = current.length - 1; i >= 0; i--) {
+            int slot = current[i].slotOf(orderId);
+            if (slot >= 0) {
+                return materialize(current[i], slot);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean compareAndSetStatus(long orderId, OrderStatus expected, OrderStatus target) {
+        Segment[] current = segments;
+        for (int i = current.length - 1; i >= 0; i--) {
+            Segment segment = current[i];
+            int slot = segment.slotOf(orderId);
+            if (slot >= 0) {
+                return STATUS.compareAndSet(segment.statuses, slot, (byte) expected.ordinal(), (byte) target.ordinal());
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void forEach(Consumer<DatabaseManager.Order> action) {
+        for (Segment segment : segments) {
+            int n = segment.size();
+            for (int slot = 0; slot < n; slot++) {
+                // 只遍历字段已经写完的槽位
+                if (segment.orderIdAt(slot) > 0) {
+                    action.accept(materialize(segment, slot));
+                }
+            }
+        }
+    }
+
+    // 表内字典编号按需映射成快照字典编号，每个字符串只导出一次
+    @Override
+    public void export(Exporter exporter) {
+        RefMap productMap = new RefMap();
+        RefMap userMap = new RefMap();
+        for (Segment segment : segments) {
+            int n = segment.size();
+            for (int slot = 0; slot < n; slot++) {
+                long orderId = segment.orderIdAt(slot);
+                if (orderId <= 0) {
+                    continue;
+                }
+                int productRef = segment.productRefs[slot];
+                int exportedProduct = productMap.get(productRef);
+                if (exportedProduct < 0) {
+                    exportedProduct = productMap.put(productRef);
+                    exporter.product(products.lookup(productRef));
+                }
+                int userRef = segment.userRefs[slot];
+                int exportedUser = userMap.get(userRef);
+                if (exportedUser < 0) {
+                    exportedUser = userMap.put(userRef);
+                    exporter.user(users.lookup(userRef));
+                }
+                OrderStatus status = STATUS_VALUES[(byte) STATUS.getVolatile(segment.statuses, slot)];
+                exporter.order(orderId, exportedProduct, exportedUser, status);
+            }
+        }
+    }
+
+    // 每个字典项只 intern 一次，订单按编号映射后直接写入段，不再逐个查找字符串
+    @Override
+    public Loader loader() {
+        return new Loader() {
+            private final RefMap productMap = new RefMap();
+            private final RefMap userMap = new RefMap();
+
+            @Override
+            public void product(String productId) {
+                productMap.set(productMap.size(), products.intern(productId));
+            }
+
+            @Override
+            public void user(String userId) {
+                userMap.set(userMap.size(), users.intern(userId));
+            }
+
+            @Override
+            public void orders(long[] orderIds, int[] productRefs, int[] userRefs, byte[] statuses, int count) {
+                for (int i = 0; i < count; i++) {
+                    if (orderIds[i] <= 0) {
+                        throw new IllegalArgumentException("紧凑订单表要求订单ID为正整数: " + orderIds[i]);
+                    }
+                    insert(orderIds[i], productMap.get(productRefs[i]), userMap.get(userRefs[i]), statuses[i]);
+                }
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    // 丢弃扩容出来的段，回到初始容量
+    @Override
+    public synchronized void clear() {
+        segments = new Segment[]{new Segment(initialCapacity)};
+        products.clear();
+        users.clear();
+    }
+
+    private DatabaseManager.Order materialize(Segment segment, int slot) {
+        OrderStatus status = STATUS_VALUES[(byte) STATUS.getVolatile(segment.statuses, slot)];
+        return new DatabaseManager.Order(segment.orderIds[slot],
+                products.lookup(segment.productRefs[slot]), users.lookup(segment.userRefs[slot]), status);
+    }
+
+    // 字典编号 -> 另一套字典的编号，数组按需扩容，未映射的编号返回-1
+    private static final class RefMap {
+        private int[] refs = new int[1024];
+        private int size;
+
+        int get(int ref) {
+            return ref < refs.length ? refs[ref] - 1 : -1;
+        }
+
+        // 映射到下一个新编号并返回它
+        int put(int ref) {
+            set(ref, size);
+            return size - 1;
+        }
+
+        void set(int ref, int value) {
+            if (ref >= refs.length) {
+                refs = Arrays.copyOf(refs, Math.max(ref + 1, refs.length * 2));
+            }
+            refs[ref] = value + 1;
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // 固定容量的一段：并行数组 + 订单ID → 槽位 的开放寻址索引
+    private static final class Segment {
+        final int capacity;
+        final long[] orderIds;
+        final int[] productRefs;
+        final int[] userRefs;
+        final byte[] statuses;
+        // 已分配的槽位数，段满后继续自增的部分不算
+        final AtomicInteger claimed = new AtomicInteger();
+
+        // indexSlots 存 槽位号+1，0 表示尚未发布
+        final int indexMask;
+        final AtomicLongArray indexKeys;
+        final AtomicIntegerArray indexSlots;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            this.orderIds = new long[capacity];
+            this.productRefs = new int[capacity];
+            this.userRefs = new int[capacity];
+            this.statuses = new byte[capacity];
+            int indexSize = Integer.highestOneBit((int) Math.max(2, capacity * 2L - 1)) << 1;
+            this.indexMask = indexSize - 1;
+            this.indexKeys = new AtomicLongArray(indexSize);
+            this.indexSlots = new AtomicIntegerArray(indexSize);
+        }
+
+        // 段已满返回false，不会写入任何字段
+        boolean tryInsert(long orderId, int productRef, int userRef, byte status) {
+            int slot;
+            do {
+                slot = claimed.get();
+                if (slot >= capacity) {
+                    return false;
+                }
+            } while (!claimed.compareAndSet(slot, slot + 1));
+            productRefs[slot] = productRef;
+            userRefs[slot] = userRef;
+            statuses[slot] = status;
+            ORDER_ID.setRelease(orderIds, slot, orderId);
+            publish(orderId, slot);
+            return true;
+        }
+
+        // 槽位的字段还没写完时返回0
+        long orderIdAt(int slot) {
+            return (long) ORDER_ID.getAcquire(orderIds, slot);
+        }
+
+        int size() {
+            return claimed.get();
+        }
+
+        private void publish(long orderId, int slot) {
+            int i = mix(orderId) & indexMask;
+            while (true) {
+                long key = indexKeys.get(i);
+                if (key == 0 && indexKeys.compareAndSet(i, 0, orderId) || key == orderId) {
+                    indexSlots.setRelease(i, slot + 1);
+                    return;
+                }
+                if (key == 0) {
+                    continue; // 其他线程刚占用了这个位置，重新读取
+                }
+                i = (i + 1) & indexMask;
+            }
+        }
+
+        // 返回订单所在槽位，不存在或尚未发布返回-1
+        int slotOf(long orderId) {
+            int i = mix(orderId) & indexMask;
+            while (true) {
+                long key = indexKeys.get(i);
+                if (key == 0) {
+                    return -1;
+                }
+                if (key == orderId) {
+                    return indexSlots.getAcquire(i) - 1;
+                }
+                i = (i + 1) & indexMask;
+            }
+        }
+    }
+}
@@ -7,7 +7,47 @@ public class Config {
     public static final int REDIS_DATABASE = 11;
     public static final String REDIS_PASSWORD = "Codesafe";
     public static final String PRODUCT_STOCK_KEY_PREFIX = "seckill:stock:";
-    public static final String PRODUCT_SOLD_OUT_BLOOM_FILTER = "seckill:bloom_filter";
+    public static final String PRODUCT_BUYERS_KEY_PREFIX = "seckill:buyers:"; // 商品的购买用户集合
+    // 本地库存段模式：每个节点一次从Redis租借一段库存，在本地无锁分配，减少Redis访问次数
+    public static final boolean STOCK_SEGMENT_ENABLED = false;
+    public static final int STOCK_SEGMENT_SIZE = 50; // 每次租借的库存数量
+    // 预扣减请求合并：同一时刻的并发请求合并成一次管道批量调用
+    public static final int REDIS_COALESCE_MAX_BATCH = 512; // 单次批量最多合并的请求数
+    public static final int REDIS_COALESCE_WAIT_MICROS = 200; // 等待批量结果的轮询间隔
+    // 同时访问Redis的请求数上限 (信号量)，也是连接池大小，拿到许可后借连接不会阻塞
+    public static final int REDIS_MAX_CONCURRENCY = 128;
+
+    // --- 执行方式 ---
+    // PLATFORM：平台线程池；VIRTUAL：每个秒杀请求和消费回调一个虚拟线程，Redis/MQ 由信号量限流
+    public static final SeckillExecutors.Mode EXECUTOR_MODE = SeckillExecutors.Mode.VIRTUAL;
+
+    // --- 限购 ---
+    // 每个用户每个商品只能抢到一次：Redis模式下在扣减脚本中原子检查并记录购买用户，本地库存模式下在进程内检查
+    public static final boolean ONE_ORDER_PER_USER = true;
+    // Redis模式下本地缓存已购买的用户，重复请求不访问Redis；每个商品最多缓存的用户数和缓存有效期
+    public static final int BUYER_CACHE_MAX_ENTRIES = 100_000;
+    public static final long BUYER_CACHE_TTL_MS = 60_000;
+
+    // --- 准入控制 ---
+    // 访问库存之前按用户和全局令牌桶限流，超额请求直接拒绝
+    public static final boolean ADMISSION_ENABLED = true;
+    public static final double ADMISSION_GLOBAL_RATE = 20000; // 每秒进入库存扣减的请求数
+    public static final int ADMISSION_GLOBAL_BURST = 2000;
+    public static final double ADMISSION_USER_RATE = 2; // 每个用户每秒的请求数
+    public static final int ADMISSION_USER_BURST = 5;
+    // 最多跟踪的用户数，超过时新用户的请求被拒绝；空闲超过 IDLE_MS 的用户令牌桶被清理
+    public static final int ADMISSION_MAX_USERS = 1_000_000;
+    public static final long ADMISSION_USER_IDLE_MS = 60_000;
+
+    // --- 库存存储配置 ---
+    // 库存存储类型："redis" 使用Redis Lua脚本；"memory" 使用进程内分段原子计数器 (单机压测用)
+    public static final String STOCK_STORE_TYPE = "redis";
+    public static final int MEMORY_STOCK_STRIPES = Runtime.getRuntime().availableProcessors();
+
+    // --- 消息队列配置 ---
+    // RABBITMQ 走broker；MEMORY 走进程内环形队列 (单机部署和压测用，进程退出时未消费的消息会丢失)
+    public static final MessageBus.Type MESSAGE_BUS_TYPE = MessageBus.Type.RABBITMQ;
+    public static final int RING_BUFFER_CAPACITY = 1 << 16; // 进程内每个队列的容量，必须是2的幂
 
     // --- RabbitMQ 配置 ---
     public static final String MQ_HOST = "localhost";
@@ -30,7 +70,70 @@ public class Config {
     public static final String ORDER_TIMEOUT_DEAD_LETTER_QUEUE = "order_timeout_dead_letter_queue";
     public static final String ORDER_TIMEOUT_DEAD_LETTER_ROUTING_KEY = "order.timeout.dead";
     public static final int ORDER_TIMEOUT_MS = 15000; // 订单超时时间：15秒
+    // 超时检查方式：MESSAGE_TTL 走延迟队列+死信队列，TIMING_WHEEL 走进程内时间轮 (不产生额外消息，支付/取消后立即移除)
+    public static final TimeoutManager.Mode ORDER_TIMEOUT_MODE = TimeoutManager.Mode.TIMING_WHEEL;
+    // 时间轮精度与槽数：TICK_MS * WHEEL_SIZE 大于订单超时时间时订单不需要转圈
+    public static final long TIMEOUT_WHEEL_TICK_MS = 10;
+    public static final int TIMEOUT_WHEEL_SIZE = 2048;
+    // 建单后登记超时检查失败 (例如延迟消息发送失败) 时的重试间隔
+    public static final long ORDER_TIMEOUT_RETRY_MS = 1000;
+    // 消费者：每个工作线程独占一个Channel，prefetch 为每个Channel未确认消息的上限
+    public static final int ORDER_CONSUMER_WORKERS = Runtime.getRuntime().availableProcessors();
+    public static final int ORDER_CONSUMER_PREFETCH = 64;
+    // 订单消费者批量处理：攒够 BATCH_SIZE 条或等待 BATCH_WAIT_MS 后整批建单、整批确认 (批量大小不应超过 prefetch)
+    public static final boolean ORDER_CONSUMER_BATCHING = true;
+    public static final int ORDER_CONSUMER_BATCH_SIZE = 64;
+    public static final long ORDER_CONSUMER_BATCH_WAIT_MS = 5;
+    // 批次建单或确认失败时的重试间隔，失败的批次留在消费者中不确认，到时间后重试
+    public static final long ORDER_CONSUMER_RETRY_MS = 1000;
+    public static final int PAYMENT_CONSUMER_WORKERS = 2;
+    public static final int PAYMENT_CONSUMER_PREFETCH = 32;
+    public static final int TIMEOUT_CONSUMER_WORKERS = 2;
+    public static final int TIMEOUT_CONSUMER_PREFETCH = 32;
+    public static final int CANCEL_CONSUMER_WORKERS = 1;
+    public static final int CANCEL_CONSUMER_PREFETCH = 32;
+    // 发送方Channel池大小 (Channel不能多线程同时发送)，同时也是并发发送数的信号量许可数
+    public static final int MQ_PUBLISHER_CHANNELS = Runtime.getRuntime().availableProcessors();
+    // 发送确认：超过这个时间未收到broker确认的订单消息视为丢失，归还预扣减的库存
+    public static final long MQ_CONFIRM_TIMEOUT_MS = 5000;
+    public static final long MQ_CONFIRM_SWEEP_INTERVAL_MS = 500;
+
+    // --- 数据库配置 ---
+    public static final DatabaseManager.ConcurrencyMode DB_CONCURRENCY_MODE = DatabaseManager.ConcurrencyMode.STRIPED;
+    public static final DatabaseManager.OrderTableType ORDER_TABLE_TYPE = DatabaseManager.OrderTableType.MAP;
+    public static final int COMPACT_ORDER_TABLE_CAPACITY = 1 << 20; // 紧凑订单表的初始容量，写满后按段翻倍扩容
+    // 订单预写日志 (内存映射文件 + 组提交)
+    public static final boolean JOURNAL_ENABLED = false;
+    public static final String JOURNAL_DIR = "data";
+    public static final int JOURNAL_FILE_SIZE = 256 * 1024 * 1024;
+    public static final int JOURNAL_COMMIT_BATCH = 256; // 攒够多少条记录刷一次盘
+    public static final long JOURNAL_FLUSH_INTERVAL_MICROS = 1000; // 最长刷盘间隔
+    public static final boolean JOURNAL_SYNC_COMMIT = false; // true: 写入等待所在批次刷盘后才返回
+    public static final long JOURNAL_SEAL_TIMEOUT_MS = 1000; // 滚动日志时等待已预留记录发布的上限，超时的记录补写到新日志
+    public static final long SNAPSHOT_INTERVAL_SECONDS = 60; // 定期快照间隔
 
     // --- WebSocket 配置 ---
     public static final int WEBSOCKET_PORT = 8887;
+    // 推送线程数，通知由推送线程发送，不占用消费者线程
+    public static final int WEBSOCKET_DISPATCHER_THREADS = 2;
+    // 每个连接最多积压的通知数 (同一订单的通知合并为一条)，超出时丢弃最早的通知
+    public static final int WEBSOCKET_OUTBOUND_QUEUE_CAPACITY = 64;
+    // 推送线程每次为一个连接最多发送的通知数
+    public static final int WEBSOCKET_DRAIN_BATCH = 16;
+    // 连接发送缓冲区还有数据 (客户端跟不上) 时，隔多久再尝试发送
+    public static final long WEBSOCKET_SLOW_CLIENT_RETRY_MS = 50;
+    // 售卖状态 (开售/售罄/补货) 只广播给订阅了该商品的连接；false 时广播给所有连接
+    public static final boolean SALE_STATUS_TOPIC_ONLY = false;
+    // 同一商品售卖状态的广播合并窗口，窗口内多次变化只广播最后的状态
+    public static final long SALE_STATUS_DEBOUNCE_MS = 100;
+
+    // --- 统计配置 ---
+    // 各阶段的延迟和吞吐统计 (JMX: org.example.ticketsnatching:type=SeckillStage)，记录不加锁、不分配对象
+    public static final boolean METRICS_ENABLED = true;
+    // 统计窗口：速率和分位数按窗口计算
+    public static final long METRICS_WINDOW_SECONDS = 10;
+
+    // --- 节点配置 ---
+    // 节点号 [0, 1023]，写入订单ID，多个节点同时下单时必须各不相同
+    public static final int NODE_ID = 1;
 }
\ No newline at end of file
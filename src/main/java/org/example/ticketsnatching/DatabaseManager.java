@@ -2,74 +2,556 @@ package org.example.ticketsnatching;
 
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 @Slf4j
 public class DatabaseManager {
     // 模拟产品表
     private static final Map<String, AtomicInteger> productStockDB = new ConcurrentHashMap<>();
+    // 商品初始库存，重启恢复时用 初始库存 - 有效订单数 重新计算库存
+    private static final Map<String, Integer> productInitialStock = new ConcurrentHashMap<>();
     // 模拟订单表
-    private static final Map<String, Order> orderDB = new ConcurrentHashMap<>();
+    private static volatile OrderTable orderDB = createOrderTable(Config.ORDER_TABLE_TYPE);
+    // 订单二级索引 (按用户、按状态)
+    private static final OrderIndex orderIndex = new OrderIndex();
+    // 订单ID生成器 (雪花算法，按时间大致有序，多节点不重复)
+    private static final OrderIdGenerator orderIdGenerator = new OrderIdGenerator(Config.NODE_ID);
+    // 订单预写日志，未开启持久化时为null
+    private static volatile OrderJournal journal;
+
+    /**
+     * 并发模式</br>
+     * GLOBAL_LOCK：所有读写串行在同一个类锁上 (原实现，保留用于对比压测)</br>
+     * STRIPED：库存用CAS扣减，状态流转用CAS，读订单不加锁 (ConcurrentHashMap的无锁读 + volatile状态)，</br>
+     * 不同商品的下单、所有读请求都可以并行执行
+     */
+    public enum ConcurrencyMode {
+        GLOBAL_LOCK, STRIPED
+    }
+
+    private static volatile ConcurrencyMode concurrencyMode = Config.DB_CONCURRENCY_MODE;
+
+    /**
+     * 订单表存储方式</br>
+     * MAP：每个订单一个 Order 对象</br>
+     * COMPACT：基本类型并行数组 (见 CompactOrderTable)，订单表本身的堆占用约为 MAP 的六成
+     */
+    public enum OrderTableType {
+        MAP, COMPACT
+    }
 
     public static class Order {
-        public String orderId;
+        private static final AtomicReferenceFieldUpdater<Order, OrderStatus> STATUS =
+                AtomicReferenceFieldUpdater.newUpdater(Order.class, OrderStatus.class, "status");
+
+        public long orderId;
         public String productId;
         public String userId;
-        public String status; // AwaitingPayment, Paid, Cancelled, TimeoutCancelled
+        private volatile OrderStatus status;
+
+        public Order(long orderId, String productId, String userId) {
+            this(orderId, productId, userId, OrderStatus.AWAITING_PAYMENT);
+        }
 
-        public Order(String orderId, String productId, String userId) {
+        Order(long orderId, String productId, String userId, OrderStatus status) {
             this.orderId = orderId;
             this.productId = productId;
             this.userId = userId;
-            this.status = "AwaitingPayment";
+            this.status = status;
         }
+
+        public OrderStatus getStatus() {
+            return status;
+        }
+
+        // 一次CAS完成状态流转，并发流转中只有一个能成功
+        boolean compareAndSetStatus(OrderStatus expected, OrderStatus target) {
+            return STATUS.compareAndSet(this, expected, target);
+        }
+
         @Override
         public String toString() {
-            return String.format("Order{orderId='%s', productId='%s', userId='%s', status='%s'}", orderId, productId, userId, status);
+            return String.format("Order{orderId=%d, productId='%s', userId='%s', status='%s'}", orderId, productId, userId, status);
         }
     }
 
     public static void initProduct(String productId, int stock) {
+        productInitialStock.put(productId, stock);
         productStockDB.put(productId, new AtomicInteger(stock));
+        OrderJournal orderJournal = journal;
+        while (orderJournal != null && !orderJournal.appendProduct(productId, stock)) {
+            orderJournal = rollJournal(orderJournal);
+        }
+    }
+
+    public static boolean hasProduct(String productId) {
+        return productStockDB.containsKey(productId);
+    }
+
+    public static int getStock(String productId) {
+        AtomicInteger stock = productStockDB.get(productId);
+        return stock == null ? 0 : stock.get();
+    }
+
+    public static void setConcurrencyMode(ConcurrencyMode mode) {
+        concurrencyMode = mode;
+    }
+
+    // 切换订单表存储方式，原有订单会被丢弃 (只在初始化或压测时使用)
+    public static void setOrderTableType(OrderTableType type) {
+        orderDB = createOrderTable(type);
+        orderIndex.clear();
+    }
+
+    private static OrderTable createOrderTable(OrderTableType type) {
+        return type == OrderTableType.COMPACT
+                ? new CompactOrderTable(Config.COMPACT_ORDER_TABLE_CAPACITY)
+                : new MapOrderTable();
+    }
+
+    // 切换预写日志 (开启持久化或快照时滚动到新文件)，返回原来的日志
+    static OrderJournal swapJournal(OrderJournal next) {
+        OrderJournal previous = journal;
+        journal = next;
+        return previous;
+    }
+
+    static OrderJournal currentJournal() {
+        return journal;
+    }
+
+    // 日志写满时滚动到新一代日志，返回当前日志；滚动失败 (磁盘错误) 时抛出异常
+    private static OrderJournal rollJournal(OrderJournal full) {
+        try {
+            return SnapshotManager.rollJournal(full);
+        } catch (IOException e) {
+            throw new UncheckedIOException("订单日志滚动失败", e);
+        }
+    }
+
+    /**
+     * 先预留日志位置再写入内存，日志写满时滚动到新一代后重试，写内存成功后发布日志记录</br>
+     * 抛出异常时订单没有生效，日志中也只留下一条重放时跳过的空记录，由调用方归还已扣减的库存
+     */
+    private static void insertOrder(long orderId, String productId, String userId) {
+        OrderJournal orderJournal = journal;
+        int position = -1;
+        while (orderJournal != null && (position = orderJournal.reserveCreate(orderId, productId, userId)) < 0) {
+            orderJournal = rollJournal(orderJournal);
+        }
+        boolean inserted = false;
+        try {
+            orderDB.insert(orderId, productId, userId);
+            orderIndex.onInsert(orderId, userId, OrderStatus.AWAITING_PAYMENT);
+            inserted = true;
+        } finally {
+            if (orderJournal != null && !inserted) {
+                orderJournal.abort(position);
+            }
+        }
+        // 订单已经生效，之后的异常不能再让调用方归还库存；旧日志封口等待超时后才发布的记录不算数，补写到当前日志
+        try {
+            if (orderJournal != null && !orderJournal.commit(position)) {
+                orderJournal = rollJournal(orderJournal);
+                while (orderJournal != null && !orderJournal.appendCreate(orderId, productId, userId)) {
+                    orderJournal = rollJournal(orderJournal);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("[订单日志] 订单 {} 已创建，但日志记录未能确认持久化", orderId, e);
+        }
+    }
+
+    // 生成新的订单ID (64位正整数，无锁且不分配对象)
+    public static long nextOrderId() {
+        return orderIdGenerator.nextId();
     }
 
     // 在数据库层面创建订单并扣减库存
-    public static synchronized boolean createOrderInDB(String orderId, String productId, String userId) {
+    public static boolean createOrderInDB(long orderId, String productId, String userId) {
+        if (concurrencyMode == ConcurrencyMode.GLOBAL_LOCK) {
+            synchronized (DatabaseManager.class) {
+                return doCreateOrder(orderId, productId, userId);
+            }
+        }
+        return doCreateOrder(orderId, productId, userId);
+    }
+
+    private static boolean doCreateOrder(long orderId, String productId, String userId) {
         AtomicInteger stock = productStockDB.get(productId);
-        if (stock != null && stock.get() > 0) {
-            stock.decrementAndGet();
-            orderDB.put(orderId, new Order(orderId, productId, userId));
-            return true;
+        if (stock == null) {
+            return false;
+        }
+        // CAS扣减库存，库存为0时失败，不会扣成负数
+        int current;
+        do {
+            current = stock.get();
+            if (current <= 0) {
+                return false;
+            }
+        } while (!stock.compareAndSet(current, current - 1));
+        try {
+            insertOrder(orderId, productId, userId);
+        } catch (RuntimeException e) {
+            stock.incrementAndGet();
+            throw e;
+        }
+        return true;
+    }
+
+    // 批量下单中的一个订单
+    public record NewOrder(long orderId, String productId, String userId) {
+    }
+
+    /**
+     * 批量创建订单</br>
+     * 同一商品的订单只做一次CAS扣减 (一次扣减 min(库存, 订单数) 个)，列表中靠前的订单优先拿到库存；</br>
+     * GLOBAL_LOCK 模式下整批只加一次锁。
+     *
+     * @return 与 orders 一一对应，创建成功为true，库存不足或商品不存在为false
+     */
+    public static boolean[] createOrdersInDB(List<NewOrder> orders) {
+        if (concurrencyMode == ConcurrencyMode.GLOBAL_LOCK) {
+            synchronized (DatabaseManager.class) {
+                return doCreateOrders(orders);
+            }
         }
-        return false;
+        return doCreateOrders(orders);
     }
-    
-    public static synchronized void updateOrderStatusInDB(String orderId, String newStatus) {
-        Order order = orderDB.get(orderId);
-        if (order != null) {
-            order.status = newStatus;
+
+    private static boolean[] doCreateOrders(List<NewOrder> orders) {
+        Map<String, Integer> requested = new HashMap<>();
+        for (NewOrder order : orders) {
+            requested.merge(order.productId(), 1, Integer::sum);
+        }
+        // 每个商品一次CAS扣减，拿到的数量即该商品可以成功的订单数
+        Map<String, Integer> granted = new HashMap<>();
+        requested.forEach((productId, count) -> granted.put(productId, deductUpTo(productId, count)));
+
+        boolean[] results = new boolean[orders.size()];
+        try {
+            for (int i = 0; i < results.length; i++) {
+                NewOrder order = orders.get(i);
+                int remaining = granted.get(order.productId());
+                if (remaining == 0) {
+                    continue;
+                }
+                insertOrder(order.orderId(), order.productId(), order.userId());
+                granted.put(order.productId(), remaining - 1);
+                results[i] = true;
+            }
+        } catch (RuntimeException e) {
+            // 还没创建的订单归还库存，已创建的订单保持有效
+            granted.forEach((productId, remaining) -> {
+                if (remaining > 0) {
+                    productStockDB.get(productId).addAndGet(remaining);
+                }
+            });
+            throw e;
+        }
+        return results;
+    }
+
+    // CAS扣减最多 count 个库存，返回实际扣减数量
+    private static int deductUpTo(String productId, int count) {
+        AtomicInteger stock = productStockDB.get(productId);
+        if (stock == null) {
+            return 0;
+        }
+        int current;
+        int grant;
+        do {
+            current = stock.get();
+            grant = Math.min(current, count);
+            if (grant <= 0) {
+                return 0;
+            }
+        } while (!stock.compareAndSet(current, current - grant));
+        return grant;
+    }
+
+    /**
+     * 订单状态流转：订单当前状态为 expected 时原子地改为 target</br>
+     * 超时取消、手动取消、支付同时到达时只有一个成功，失败方不能再归还库存或发通知
+     *
+     * @return 流转成功返回true；订单不存在或状态已被其他操作改变返回false
+     */
+    public static boolean transitionOrderStatus(long orderId, OrderStatus expected, OrderStatus target) {
+        if (!expected.canTransitionTo(target)) {
+            throw new IllegalArgumentException("非法的订单状态流转: " + expected + " -> " + target);
+        }
+        if (concurrencyMode == ConcurrencyMode.GLOBAL_LOCK) {
+            synchronized (DatabaseManager.class) {
+                return doTransition(orderId, expected, target);
+            }
+        }
+        return doTransition(orderId, expected, target);
+    }
+
+    private static boolean doTransition(long orderId, OrderStatus expected, OrderStatus target) {
+        boolean success = compareAndSetStatusIndexed(orderId, expected, target);
+        if (!success) {
+            return false;
+        }
+        // 只记录成功的流转；流转以CAS为准，先改内存再写日志，日志写满时滚动到新一代
+        OrderJournal orderJournal = journal;
+        while (orderJournal != null && !orderJournal.appendStatus(orderId, target)) {
+            orderJournal = rollJournal(orderJournal);
         }
+        return true;
     }
-    
-    public static synchronized Order getOrder(String orderId) {
+
+    public static Order getOrder(long orderId) {
+        if (concurrencyMode == ConcurrencyMode.GLOBAL_LOCK) {
+            synchronized (DatabaseManager.class) {
+                return orderDB.get(orderId);
+            }
+        }
+        // 乐观读：订单表读不加锁，状态字段为volatile，总能读到最新提交的状态
         return orderDB.get(orderId);
     }
 
-    public static synchronized void increaseStockInDB(String productId) {
+    // 用户的所有订单，按用户索引查找，不遍历订单表
+    public static List<Order> getOrdersByUser(String userId) {
+        List<Order> orders = new ArrayList<>();
+        for (long orderId : orderIndex.orderIdsOfUser(userId)) {
+            Order order = orderDB.get(orderId);
+            if (order != null) {
+                orders.add(order);
+            }
+        }
+        return orders;
+    }
+
+    // 当前处于某状态的所有订单；索引中可能残留正在流转的订单，按订单的实际状态再过滤一次
+    public static List<Order> getOrdersByStatus(OrderStatus status) {
+        return collectOrders(orderIndex.orderIdsWithStatus(status), status);
+    }
+
+    // 当前处于某状态的任意一个订单
+    public static Optional<Order> findAnyOrderByStatus(OrderStatus status) {
+        for (OrderKey key : orderIndex.orderIdsWithStatus(status)) {
+            Order order = orderDB.get(key.id());
+            if (order != null && order.getStatus() == status) {
+                return Optional.of(order);
+            }
+        }
+        return Optional.empty();
+    }
+
+    // 某状态的订单数，流转成功后才更新，并发流转时可能有瞬时误差
+    public static long countOrdersByStatus(OrderStatus status) {
+        return orderIndex.count(status);
+    }
+
+    private static List<Order> collectOrders(Iterable<OrderKey> orderIds, OrderStatus status) {
+        List<Order> orders = new ArrayList<>();
+        for (OrderKey key : orderIds) {
+            Order order = orderDB.get(key.id());
+            if (order != null && order.getStatus() == status) {
+                orders.add(order);
+            }
+        }
+        return orders;
+    }
+
+    public static void increaseStockInDB(String productId) {
+        if (concurrencyMode == ConcurrencyMode.GLOBAL_LOCK) {
+            synchronized (DatabaseManager.class) {
+                productStockDB.get(productId).incrementAndGet();
+            }
+            return;
+        }
         productStockDB.get(productId).incrementAndGet();
     }
 
+    // 一次归还多个库存 (批量超时取消)
+    public static void increaseStockInDB(String productId, int count) {
+        if (concurrencyMode == ConcurrencyMode.GLOBAL_LOCK) {
+            synchronized (DatabaseManager.class) {
+                productStockDB.get(productId).addAndGet(count);
+            }
+            return;
+        }
+        productStockDB.get(productId).addAndGet(count);
+    }
+
+    // 清空所有表 (压测多轮之间使用)
+    public static void clear() {
+        orderDB.clear();
+        orderIndex.clear();
+        productStockDB.clear();
+        productInitialStock.clear();
+    }
+
+    // --- 重启恢复 (快照加载和日志重放)，不写预写日志 ---
+    static void restoreProduct(String productId, int initialStock) {
+        productInitialStock.put(productId, initialStock);
+        productStockDB.put(productId, new AtomicInteger(initialStock));
+    }
+
+    // 订单已存在时忽略，重放已包含在快照中的记录不会产生重复订单
+    static void restoreOrder(long orderId, String productId, String userId, OrderStatus status) {
+        if (orderDB.get(orderId) == null) {
+            orderDB.insert(orderId, productId, userId, status);
+            orderIndex.onInsert(orderId, userId, status);
+        }
+        orderIdGenerator.advancePast(orderId);
+    }
+
+    /**
+     * 快照加载：订单表和二级索引按段批量写入，ID生成器每段只推进一次</br>
+     * 只在恢复开始、订单表为空时使用，之后的日志重放仍走 {@link #restoreOrder}
+     */
+    static OrderTable.Loader orderLoader() {
+        OrderTable.Loader table = orderDB.loader();
+        return new OrderTable.Loader() {
+            private final List<String> users = new ArrayList<>();
+            private String[] userIds = new String[0];
+
+            @Override
+            public void product(String productId) {
+                table.product(productId);
+            }
+
+            @Override
+            public void user(String userId) {
+                table.user(userId);
+                users.add(userId);
+            }
+
+            @Override
+            public void orders(long[] orderIds, int[] productRefs, int[] userRefs, byte[] statuses, int count) {
+                table.orders(orderIds, productRefs, userRefs, statuses, count);
+                if (userIds.length < count) {
+                    userIds = new String[count];
+                }
+                long maxOrderId = 0;
+                for (int i = 0; i < count; i++) {
+                    userIds[i] = users.get(userRefs[i]);
+                    maxOrderId = Math.max(maxOrderId, orderIds[i]);
+                }
+                orderIndex.onLoad(orderIds, userIds, statuses, count);
+                orderIdGenerator.advancePast(maxOrderId);
+            }
+        };
+    }
+
+    // 快照导出，订单以字典编号给出 (见 OrderTable.Exporter)
+    static void exportOrders(OrderTable.Exporter exporter) {
+        orderDB.export(exporter);
+    }
+
+    static long orderCount() {
+        return orderDB.size();
+    }
+
+    // 恢复或压测前按预计的订单数预分配订单表，避免过程中反复扩容；订单表不为空时不做任何事
+    public static void reserveOrderCapacity(int expectedOrders) {
+        if (expectedOrders < 0) {
+            throw new IllegalArgumentException("预计订单数不能为负数: " + expectedOrders);
+        }
+        if (orderDB.size() != 0) {
+            return;
+        }
+        if (orderDB instanceof MapOrderTable) {
+            orderDB = new MapOrderTable(expectedOrders);
+        } else if (orderDB instanceof CompactOrderTable && expectedOrders > Config.COMPACT_ORDER_TABLE_CAPACITY) {
+            // 尽量一段装下所有订单，不必逐段扩容；超过单段上限的部分仍按段扩容
+            orderDB = new CompactOrderTable(Math.min(expectedOrders, CompactOrderTable.MAX_SEGMENT_CAPACITY));
+        }
+    }
+
+    // 状态只能从待支付流转一次，重复重放同一条记录是幂等的
+    static void restoreStatus(long orderId, OrderStatus status) {
+        compareAndSetStatusIndexed(orderId, OrderStatus.AWAITING_PAYMENT, status);
+    }
+
+    // CAS流转状态并维护状态索引 (见 OrderIndex)
+    private static boolean compareAndSetStatusIndexed(long orderId, OrderStatus expected, OrderStatus target) {
+        boolean added = orderIndex.beforeTransition(orderId, target);
+        boolean success = orderDB.compareAndSetStatus(orderId, expected, target);
+        orderIndex.afterTransition(orderId, expected, target, success, added);
+        if (!success && added) {
+            // 并发的同一流转可能已经成功，但因为条目已存在而没有加入，撤销后按实际状态补回
+            Order order = orderDB.get(orderId);
+            if (order != null && order.getStatus() == target) {
+                orderIndex.ensureIndexed(orderId, target);
+            }
+        }
+        return success;
+    }
+
+    // 库存 = 初始库存 - 待支付和已支付的订单数；按商品字典编号计数，不为每个订单创建 Order 对象
+    static void rebuildStock() {
+        ActiveOrderCounter counter = new ActiveOrderCounter();
+        orderDB.export(counter);
+        Map<String, Integer> active = counter.byProduct();
+        productInitialStock.forEach((productId, initial) ->
+                productStockDB.put(productId, new AtomicInteger(initial - active.getOrDefault(productId, 0))));
+    }
+
+    // 按商品统计待支付和已支付的订单数
+    private static final class ActiveOrderCounter implements OrderTable.Exporter {
+        private final List<String> products = new ArrayList<>();
+        private int[] counts = new int[16];
+
+        @Override
+        public void product(String productId) {
+            products.add(productId);
+            if (products.size() > counts.length) {
+                counts = Arrays.copyOf(counts, counts.length * 2);
+            }
+        }
+
+        @Override
+        public void user(String userId) {
+        }
+
+        @Override
+        public void order(long orderId, int productRef, int userRef, OrderStatus status) {
+            if (status == OrderStatus.AWAITING_PAYMENT || status == OrderStatus.PAID) {
+                counts[productRef]++;
+            }
+        }
+
+        Map<String, Integer> byProduct() {
+            Map<String, Integer> active = new HashMap<>();
+            for (int i = 0; i < products.size(); i++) {
+                active.merge(products.get(i), counts[i], Integer::sum);
+            }
+            return active;
+        }
+    }
+
+    static void forEachInitialStock(BiConsumer<String, Integer> action) {
+        productInitialStock.forEach(action);
+    }
+
     public static void printAllOrders() {
         log.info("--- 当前所有订单状态 ---");
-        orderDB.values().forEach(e -> log.info(e.toString()));
+        orderDB.forEach(e -> log.info(e.toString()));
         log.info("------------------------");
     }
 
     public static void printAllStock() {
         log.info("--- 当前数据库库存 ---");
         productStockDB.forEach((k, v) -> log.info("商品ID: {}, 库存: {}", k, v));
+        for (OrderStatus status : OrderStatus.values()) {
+            log.info("{} 订单数: {}", status, orderIndex.count(status));
+        }
         log.info("------------------------");
     }
 
@@ -78,7 +560,7 @@ public class DatabaseManager {
         DatabaseManager.printAllStock();
     }
 
-    public static Map<String, Order> getOrderDB() {
-        return orderDB;
+    public static void forEachOrder(Consumer<Order> action) {
+        orderDB.forEach(action);
     }
 }
\ No newline at end of file
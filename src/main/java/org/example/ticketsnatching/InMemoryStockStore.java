@@ -0,0 +1,134 @@
+package org.example.ticketsnatching;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 进程内库存存储，不依赖Redis</br>
+ * 每个商品的库存拆分到多个分段计数器上 (类似 LongAdder 的思路)，线程按自己的哈希选择起始分段做CAS扣减，</br>
+ * 起始分段扣完再依次尝试其他分段，全部为0才判定库存不足。各分段都不会小于0，所以总量不会超卖。</br>
+ * 分段之间间隔 {@link #PADDING} 个long (128字节)，避免伪共享。</br>
+ * 限购由进程内的 {@link BuyerRegistry} 保证：先登记用户再扣减，库存不足时撤销登记。
+ */
+public class InMemoryStockStore implements StockStore {
+    private static final int PADDING = 16;
+
+    private final int stripes;
+    private final Map<String, AtomicLongArray> stocks = new ConcurrentHashMap<>();
+    private final SoldOutIndex soldOutIndex = new SoldOutIndex();
+    private final BuyerRegistry buyers = new BuyerRegistry();
+
+    public InMemoryStockStore() {
+        this(Config.MEMORY_STOCK_STRIPES);
+    }
+
+    public InMemoryStockStore(int stripes) {
+        // 向上取整到2的幂，方便用位运算取分段
+        this.stripes = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+    }
+
+    @Override
+    public void setStock(String productId, int stock) {
+        AtomicLongArray cells = new AtomicLongArray(stripes * PADDING);
+        for (int i = 0; i < stripes; i++) {
+            cells.set(i * PADDING, stock / stripes + (i < stock % stripes ? 1 : 0));
+        }
+        stocks.put(productId, cells);
+    }
+
+    @Override
+    public DeductResult tryDeduct(String userId, String productId) {
+        if (!Config.ONE_ORDER_PER_USER) {
+            return deduct(productId) ? DeductResult.GRANTED : DeductResult.SOLD_OUT;
+        }
+        if (!buyers.tryAdd(productId, userId)) {
+            return DeductResult.DUPLICATE;
+        }
+        if (deduct(productId)) {
+            return DeductResult.GRANTED;
+        }
+        buyers.remove(productId, userId);
+        return DeductResult.SOLD_OUT;
+    }
+
+    @Override
+    public boolean hasPurchased(String userId, String productId) {
+        return Config.ONE_ORDER_PER_USER && buyers.contains(productId, userId);
+    }
+
+    private boolean deduct(String productId) {
+        AtomicLongArray cells = stocks.get(productId);
+        if (cells == null) {
+            return false;
+        }
+        int start = probe();
+        for (int k = 0; k < stripes; k++) {
+            int index = ((start + k) & (stripes - 1)) * PADDING;
+            long n;
+            while ((n = cells.get(index)) > 0) {
+                if (cells.compareAndSet(index, n, n - 1)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void cancelDeduct(String userId, String productId) {
+        add(productId, 1);
+        buyers.remove(productId, userId);
+        soldOutIndex.reopen(productId);
+    }
+
+    @Override
+    public void returnStock(String productId, int count) {
+        add(productId, count);
+        soldOutIndex.reopen(productId);
+    }
+
+    @Override
+    public void returnStock(String productId, Collection<String> userIds) {
+        add(productId, userIds.size());
+        buyers.removeAll(productId, userIds);
+        soldOutIndex.reopen(productId);
+    }
+
+    @Override
+    public void clearBuyers(String productId) {
+        buyers.clear(productId);
+    }
+
+    @Override
+    public SoldOutIndex soldOutIndex() {
+        return soldOutIndex;
+    }
+
+    // 当前剩余库存 (各分段之和，并发下为近似值)
+    public long getStock(String productId) {
+        AtomicLongArray cells = stocks.get(productId);
+        if (cells == null) {
+            return 0;
+        }
+        long sum = 0;
+        for (int i = 0; i < stripes; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    private void add(String productId, int count) {
+        AtomicLongArray cells = stocks.get(productId);
+        if (cells != null) {
+            cells.addAndGet((probe() & (stripes - 1)) * PADDING, count);
+        }
+    }
+
+    // 按线程ID打散，不同线程尽量落在不同分段
+    private static int probe() {
+        long id = Thread.currentThread().threadId();
+        return (int) (id * 0x9E3779B97F4A7C15L >>> 32);
+    }
+}
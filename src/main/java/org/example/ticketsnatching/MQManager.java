@@ -1,77 +1,109 @@
 package org.example.ticketsnatching;
 
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.Connection;
-import com.rabbitmq.client.ConnectionFactory;
-import com.rabbitmq.client.AMQP.BasicProperties;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
+/**
+ * 消息队列入口：声明交换机和队列，按 {@link Config#MESSAGE_BUS_TYPE} 选择消息总线实现</br>
+ * RABBITMQ 走broker (见 {@link RabbitMessageBus})，MEMORY 走进程内环形队列 (见 {@link RingBufferMessageBus})，</br>
+ * 发送方和消费者的代码与实现无关。
+ */
 @Slf4j
 public class MQManager {
-    private static Connection connection;
-    private static Channel channel;
+    private static MessageBus bus;
 
     public static void init() throws IOException, TimeoutException {
-        ConnectionFactory factory = new ConnectionFactory();
-        factory.setHost(Config.MQ_HOST);
-        factory.setPort(Config.MQ_PORT);
-        factory.setUsername("guest");
-        factory.setPassword("guest");
-        connection = factory.newConnection();
-        channel = connection.createChannel();
+        if (Config.MESSAGE_BUS_TYPE == MessageBus.Type.MEMORY) {
+            init(new RingBufferMessageBus(Config.RING_BUFFER_CAPACITY));
+        } else {
+            // 消费线程数与所有消费者的工作线程数之和一致
+            int consumerThreads = Config.ORDER_CONSUMER_WORKERS + Config.PAYMENT_CONSUMER_WORKERS
+                    + Config.TIMEOUT_CONSUMER_WORKERS + Config.CANCEL_CONSUMER_WORKERS;
+            init(new RabbitMessageBus(Config.MQ_HOST, Config.MQ_PORT, consumerThreads, Config.MQ_PUBLISHER_CHANNELS));
+        }
+    }
+
+    // 使用指定的消息总线 (压测时不按配置选择实现)
+    public static void init(MessageBus messageBus) throws IOException {
+        bus = messageBus;
+        declareTopology(bus);
+        log.info("消息队列初始化成功，实现: {}", messageBus.getClass().getSimpleName());
+    }
 
+    private static void declareTopology(MessageBus bus) throws IOException {
         // --- 声明处理订单的交换机和队列 ---
-        channel.exchangeDeclare(Config.ORDER_EXCHANGE, "direct", true);
-        channel.queueDeclare(Config.ORDER_QUEUE, true, false, false, null);
-        channel.queueBind(Config.ORDER_QUEUE, Config.ORDER_EXCHANGE, Config.ORDER_ROUTING_KEY);
+        bus.declareExchange(Config.ORDER_EXCHANGE);
+        bus.declareQueue(Config.ORDER_QUEUE, null, null);
+        bus.bindQueue(Config.ORDER_QUEUE, Config.ORDER_EXCHANGE, Config.ORDER_ROUTING_KEY);
 
         // --- 声明处理支付的队列 ---
-        channel.queueDeclare(Config.PAYMENT_QUEUE, true, false, false, null);
-        channel.queueBind(Config.PAYMENT_QUEUE, Config.ORDER_EXCHANGE, Config.PAYMENT_ROUTING_KEY);
+        bus.declareQueue(Config.PAYMENT_QUEUE, null, null);
+        bus.bindQueue(Config.PAYMENT_QUEUE, Config.ORDER_EXCHANGE, Config.PAYMENT_ROUTING_KEY);
 
         // --- 声明处理手动取消的队列 ---
-        channel.queueDeclare(Config.MANUAL_CANCEL_QUEUE, true, false, false, null);
-        channel.queueBind(Config.MANUAL_CANCEL_QUEUE, Config.ORDER_EXCHANGE, Config.MANUAL_CANCEL_ROUTING_KEY);
+        bus.declareQueue(Config.MANUAL_CANCEL_QUEUE, null, null);
+        bus.bindQueue(Config.MANUAL_CANCEL_QUEUE, Config.ORDER_EXCHANGE, Config.MANUAL_CANCEL_ROUTING_KEY);
 
         // --- 声明实现订单超时的死信队列机制 ---
         // 1. 正常接收延迟消息的交换机和队列
-        Map<String, Object> args = new HashMap<>();
-        args.put("x-dead-letter-exchange", Config.ORDER_TIMEOUT_DEAD_LETTER_EXCHANGE);
-        args.put("x-dead-letter-routing-key", Config.ORDER_TIMEOUT_DEAD_LETTER_ROUTING_KEY);
-        channel.exchangeDeclare(Config.ORDER_TIMEOUT_DELAY_EXCHANGE, "direct", true);
-        channel.queueDeclare(Config.ORDER_TIMEOUT_DELAY_QUEUE, true, false, false, args);
-        channel.queueBind(Config.ORDER_TIMEOUT_DELAY_QUEUE, Config.ORDER_TIMEOUT_DELAY_EXCHANGE, Config.ORDER_TIMEOUT_DELAY_ROUTING_KEY);
+        bus.declareExchange(Config.ORDER_TIMEOUT_DELAY_EXCHANGE);
+        bus.declareQueue(Config.ORDER_TIMEOUT_DELAY_QUEUE,
+                Config.ORDER_TIMEOUT_DEAD_LETTER_EXCHANGE, Config.ORDER_TIMEOUT_DEAD_LETTER_ROUTING_KEY);
+        bus.bindQueue(Config.ORDER_TIMEOUT_DELAY_QUEUE, Config.ORDER_TIMEOUT_DELAY_EXCHANGE, Config.ORDER_TIMEOUT_DELAY_ROUTING_KEY);
 
         // 2. 实际消费超时消息的死信交换机和队列
-        channel.exchangeDeclare(Config.ORDER_TIMEOUT_DEAD_LETTER_EXCHANGE, "direct", true);
-        channel.queueDeclare(Config.ORDER_TIMEOUT_DEAD_LETTER_QUEUE, true, false, false, null);
-        channel.queueBind(Config.ORDER_TIMEOUT_DEAD_LETTER_QUEUE, Config.ORDER_TIMEOUT_DEAD_LETTER_EXCHANGE, Config.ORDER_TIMEOUT_DEAD_LETTER_ROUTING_KEY);
-        
-        log.info("RabbitMQ 初始化成功");
+        bus.declareExchange(Config.ORDER_TIMEOUT_DEAD_LETTER_EXCHANGE);
+        bus.declareQueue(Config.ORDER_TIMEOUT_DEAD_LETTER_QUEUE, null, null);
+        bus.bindQueue(Config.ORDER_TIMEOUT_DEAD_LETTER_QUEUE, Config.ORDER_TIMEOUT_DEAD_LETTER_EXCHANGE, Config.ORDER_TIMEOUT_DEAD_LETTER_ROUTING_KEY);
+    }
+
+    /**
+     * 启动一个队列的消费者</br>
+     * 启动 workers 个消费者，每个最多持有 prefetch 条未确认消息。</br>
+     * handlerFactory 为每个消费者创建一个回调，回调中必须用传入的 Acknowledger 确认消息。
+     */
+    public static void startConsumer(String queue, int prefetch, int workers,
+                                     Function<MessageBus.Acknowledger, MessageBus.MessageHandler> handlerFactory) throws IOException {
+        bus.subscribe(queue, prefetch, workers, handlerFactory);
+    }
+
+    // 消息体由 MessageCodec 编码
+    public static void sendMessage(String exchange, String routingKey, byte[] body) throws IOException {
+        bus.publish(exchange, routingKey, body, null);
+    }
+
+    /**
+     * 发送需要确认的消息，消息被broker拒绝或确认超时时以 compensationKey 调用失败处理器补偿</br>
+     * 抛出 IOException 时消息未登记，由调用方自行补偿
+     */
+    public static void sendMessage(String exchange, String routingKey, byte[] body,
+                                   MessageBus.CompensationKey compensationKey) throws IOException {
+        bus.publish(exchange, routingKey, body, compensationKey);
     }
 
-    public static void sendMessage(String exchange, String routingKey, String message) throws IOException {
-        channel.basicPublish(exchange, routingKey, null, message.getBytes());
+    // 设置消息丢失时的补偿处理器，参数为 补偿键 -> 丢失消息数，在确认扫描线程上执行
+    public static void setPublishFailureHandler(Consumer<Map<MessageBus.CompensationKey, Integer>> handler) {
+        bus.setPublishFailureHandler(handler);
     }
 
-    public static void sendDelayedTimeoutMessage(String message) throws IOException {
-        BasicProperties properties = new BasicProperties.Builder()
-                .expiration(String.valueOf(Config.ORDER_TIMEOUT_MS))
-                .build();
-        channel.basicPublish(Config.ORDER_TIMEOUT_DELAY_EXCHANGE, Config.ORDER_TIMEOUT_DELAY_ROUTING_KEY, properties, message.getBytes());
+    public static void sendDelayedTimeoutMessage(long orderId) throws IOException {
+        bus.publishDelayed(Config.ORDER_TIMEOUT_DELAY_EXCHANGE, Config.ORDER_TIMEOUT_DELAY_ROUTING_KEY,
+                MessageCodec.encodeTimeout(orderId), Config.ORDER_TIMEOUT_MS);
     }
 
-    public static Channel getChannel() {
-        return channel;
+    // 批量发送超时检查消息
+    public static void sendDelayedTimeoutMessages(List<Long> orderIds) throws IOException {
+        bus.publishDelayed(Config.ORDER_TIMEOUT_DELAY_EXCHANGE, Config.ORDER_TIMEOUT_DELAY_ROUTING_KEY,
+                orderIds, MessageCodec::encodeTimeout, Config.ORDER_TIMEOUT_MS);
     }
 
     public static void close() throws IOException, TimeoutException {
-        channel.close();
-        connection.close();
+        bus.close();
     }
-}
\ No newline at end of file
+}
@@ -4,7 +4,6 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -14,6 +13,9 @@ public class Main {
     private static final int INITIAL_STOCK = 3;
     private static final int CONCURRENT_USERS = 4;
 
+    private static StockStore stockStore;
+    private static SeckillService seckillService;
+
     public static void main(String[] args) throws Exception {
         // 1. 初始化所有组件
         init();
@@ -35,20 +37,18 @@ public class Main {
         log.info("--- 开始模拟后续操作 ---");
         // 假设我们知道生成的订单ID (实际应用中需要通过查询获得)
         // 场景A: 成功支付 (选择第一个待支付订单)
-        DatabaseManager.getOrderDB().values().stream()
-                .filter(o -> "AwaitingPayment".equals(o.status)).findFirst()
+        DatabaseManager.findAnyOrderByStatus(OrderStatus.AWAITING_PAYMENT)
                 .ifPresent(order -> {
                     log.info("模拟场景A：用户支付订单 {}", order.orderId);
-                    PaymentService.payForOrder(order.userId, order.orderId);
+                    PaymentService.payForOrder(order.userId, String.valueOf(order.orderId));
                 });
         Thread.sleep(2000);
 
         // 场景B: 手动取消 (选择第二个待支付订单)
-        DatabaseManager.getOrderDB().values().stream()
-                .filter(o -> "AwaitingPayment".equals(o.status)).findFirst()
+        DatabaseManager.findAnyOrderByStatus(OrderStatus.AWAITING_PAYMENT)
                 .ifPresent(order -> {
                     log.info("模拟场景B：用户手动取消订单 {}", order.orderId);
-                    CancellationService.cancelOrder(order.orderId);
+                    CancellationService.cancelOrder(String.valueOf(order.orderId));
                 });
         Thread.sleep(2000);
 
@@ -66,33 +66,73 @@ public class Main {
 
     private static void init() throws IOException, TimeoutException {
         log.info("[INIT]--- 系统初始化开始 ---");
-        RedisManager.init();
+        SeckillMetrics.init();
+        stockStore = createStockStore();
+        seckillService = new SeckillService(stockStore);
         MQManager.init();
+        MQManager.setPublishFailureHandler(seckillService::compensateLostOrders);
         WebSocketManagerHandle.start(Config.WEBSOCKET_PORT);
-        DatabaseManager.initProduct(PRODUCT_ID, INITIAL_STOCK);
-        RedisManager.setStock(PRODUCT_ID, INITIAL_STOCK);
+        if (Config.JOURNAL_ENABLED) {
+            // 从快照和预写日志恢复订单与库存
+            SnapshotManager.recover();
+            SnapshotManager.startPeriodicSnapshots();
+        }
+        if (!DatabaseManager.hasProduct(PRODUCT_ID)) {
+            DatabaseManager.initProduct(PRODUCT_ID, INITIAL_STOCK);
+            // 新一轮秒杀，清掉上一轮的购买记录；从日志恢复时保留，已抢到的用户不能再抢
+            stockStore.clearBuyers(PRODUCT_ID);
+        }
+        stockStore.setStock(PRODUCT_ID, DatabaseManager.getStock(PRODUCT_ID));
+        // 商品售罄、重新开放时向在线用户广播
+        stockStore.soldOutIndex().setListener(WebSocketManager.saleStatusListener());
+        // 节点异常退出时也要归还本地库存段等资源
+        Runtime.getRuntime().addShutdownHook(new Thread(stockStore::close));
         log.info("[INIT]--- 系统初始化完成 ---");
     }
 
-    private static void startConsumer() throws InterruptedException {
+    private static StockStore createStockStore() {
+        if ("memory".equals(Config.STOCK_STORE_TYPE)) {
+            log.info("[INIT] 使用进程内库存存储");
+            return new InMemoryStockStore();
+        }
+        RedisManager.init();
+        return new RedisStockStore();
+    }
+
+    private static void startConsumer() throws InterruptedException, IOException {
         log.info("[INIT]--- 启动后台消费者 ---");
         new Thread(new OrderConsumer()).start();
         new Thread(new PaymentConsumer()).start();
-        new Thread(new TimeoutConsumer()).start();
-        new Thread(new CancellationConsumer()).start();
+        TimeoutConsumer timeoutConsumer = new TimeoutConsumer(stockStore);
+        if (TimeoutManager.usesTimingWheel()) {
+            // 到期订单由时间轮成批交给超时处理；恢复出来的待支付订单重新登记，按重启时间重新计时
+            TimeoutManager.start(timeoutConsumer::expireAll);
+            TimeoutManager.scheduleAll(DatabaseManager.getOrdersByStatus(OrderStatus.AWAITING_PAYMENT).stream()
+                    .map(order -> order.orderId)
+                    .toList());
+        } else {
+            new Thread(timeoutConsumer).start();
+        }
+        new Thread(new CancellationConsumer(stockStore)).start();
         Thread.sleep(2000); // 等待消费者启动
     }
 
     private static void ticketSnatchingSimulation() throws InterruptedException {
         log.info("--- 开始模拟秒杀，{}个用户并发请求，库存{} ---", CONCURRENT_USERS, INITIAL_STOCK);
-        ExecutorService executor = Executors.newFixedThreadPool(CONCURRENT_USERS);
+        WebSocketManager.broadcastSaleStatus(SaleStatusFrame.Event.OPENING, PRODUCT_ID);
+        // 平台线程池或每个请求一个虚拟线程，见 Config.EXECUTOR_MODE
+        ExecutorService executor = SeckillExecutors.newRequestExecutor(CONCURRENT_USERS);
         for (int i = 0; i < CONCURRENT_USERS; i++) {
             final String userId = "user-" + i;
             WebSocketManager.registerWebSocket(userId);
             log.info("提交用户 {} 的秒杀请求", userId);
             executor.submit(() -> {
+                if (WebSocketManager.isKnownSoldOut(PRODUCT_ID)) {
+                    log.info("用户 {} 已收到售罄通知，放弃秒杀", userId);
+                    return;
+                }
                 try {
-                    SeckillService.placeOrder(userId, PRODUCT_ID);
+                    seckillService.placeOrder(userId, PRODUCT_ID);
                     log.info("用户 {} 的秒杀请求处理完成", userId);
                 } catch (Exception e) {
                     log.error("用户 {} 的秒杀请求处理异常", userId, e);
@@ -106,10 +146,18 @@ public class Main {
     }
 
     private static void closeResources() throws IOException, TimeoutException, InterruptedException {
+        seckillService.close();
+        TimeoutManager.close();
         MQManager.close();
+        // 归还本地库存段中未分配的库存
+        stockStore.close();
         // 关闭Redis连接池
         RedisManager.close();
         WebSocketManagerHandle.stop();
+        if (Config.JOURNAL_ENABLED) {
+            SnapshotManager.close();
+        }
+        SeckillMetrics.close();
         log.info("--- 系统关闭 ---");
     }
 }
\ No newline at end of file
@@ -0,0 +1,105 @@
+package org.example.ticketsnatching;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 基于 ConcurrentHashMap 的订单表，每个订单一个 Order 对象
+ */
+class MapOrderTable implements OrderTable {
+    private static final OrderStatus[] STATUS_VALUES = OrderStatus.values();
+
+    private final Map<OrderKey, DatabaseManager.Order> orders;
+
+    MapOrderTable() {
+        this(16);
+    }
+
+    MapOrderTable(int initialCapacity) {
+        this.orders = new ConcurrentHashMap<>(initialCapacity);
+    }
+
+    @Override
+    public void insert(long orderId, String productId, String userId, OrderStatus status) {
+        orders.put(new OrderKey(orderId), new DatabaseManager.Order(orderId, productId, userId, status));
+    }
+
+    @Override
+    public DatabaseManager.Order get(long orderId) {
+        return orders.get(new OrderKey(orderId));
+    }
+
+    @Override
+    public boolean compareAndSetStatus(long orderId, OrderStatus expected, OrderStatus target) {
+        DatabaseManager.Order order = orders.get(new OrderKey(orderId));
+        return order != null && order.compareAndSetStatus(expected, target);
+    }
+
+    @Override
+    public void forEach(Consumer<DatabaseManager.Order> action) {
+        orders.values().forEach(action);
+    }
+
+    // 订单对象里的字符串不共享，按内容编号
+    @Override
+    public void export(Exporter exporter) {
+        Map<String, Integer> products = new HashMap<>();
+        Map<String, Integer> users = new HashMap<>();
+        for (DatabaseManager.Order order : orders.values()) {
+            Integer productRef = products.get(order.productId);
+            if (productRef == null) {
+                productRef = products.size();
+                products.put(order.productId, productRef);
+                exporter.product(order.productId);
+            }
+            Integer userRef = users.get(order.userId);
+            if (userRef == null) {
+                userRef = users.size();
+                users.put(order.userId, userRef);
+                exporter.user(order.userId);
+            }
+            exporter.order(order.orderId, productRef, userRef, order.getStatus());
+        }
+    }
+
+    // 同一个商品ID、用户ID的订单共用字典里的字符串对象
+    @Override
+    public Loader loader() {
+        return new Loader() {
+            private final List<String> products = new ArrayList<>();
+            private final List<String> users = new ArrayList<>();
+
+            @Override
+            public void product(String productId) {
+                products.add(productId);
+            }
+
+            @Override
+            public void user(String userId) {
+                users.add(userId);
+            }
+
+            @Override
+            public void orders(long[] orderIds, int[] productRefs, int[] userRefs, byte[] statuses, int count) {
+                for (int i = 0; i < count; i++) {
+                    orders.put(new OrderKey(orderIds[i]), new DatabaseManager.Order(orderIds[i], products.get(productRefs[i]),
+                            users.get(userRefs[i]), STATUS_VALUES[statuses[i]]));
+                }
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return orders.size();
+    }
+
+    @Override
+    public void clear() {
+        orders.clear();
+    }
+}
@@ -0,0 +1,75 @@
+package org.example.ticketsnatching;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 消息总线抽象，沿用 交换机 + 路由键 + 队列 的模型</br>
+ * RABBITMQ：{@link RabbitMessageBus}，消息经过broker，可以跨进程、持久化</br>
+ * MEMORY：{@link RingBufferMessageBus}，进程内预分配的多生产者环形队列，单机部署和压测时省掉broker往返</br>
+ * 消费者只依赖这个接口 (消息体 + 投递标签 + 确认)，在两种实现上不需要任何修改。
+ */
+public interface MessageBus extends AutoCloseable {
+
+    enum Type {
+        RABBITMQ, MEMORY
+    }
+
+    // 消息处理回调；body 在确认之前有效，确认之后不能再访问
+    @FunctionalInterface
+    interface MessageHandler {
+        void handle(byte[] body, long deliveryTag) throws IOException;
+    }
+
+    // 确认消息，multiple=true 确认同一个消费者上该标签及之前的所有消息
+    @FunctionalInterface
+    interface Acknowledger {
+        void ack(long deliveryTag, boolean multiple) throws IOException;
+    }
+
+    // 补偿键：消息丢失时需要归还库存的 商品 + 用户
+    record CompensationKey(String productId, String userId) {
+    }
+
+    // --- 拓扑声明 ---
+    void declareExchange(String exchange) throws IOException;
+
+    // deadLetterExchange 不为null时，队列中过期的消息转发到死信交换机
+    void declareQueue(String queue, String deadLetterExchange, String deadLetterRoutingKey) throws IOException;
+
+    void bindQueue(String queue, String exchange, String routingKey) throws IOException;
+
+    // --- 发送 ---
+
+    /**
+     * 发送消息，compensationKey 不为null时跟踪投递结果，消息丢失时以它调用失败处理器</br>
+     * body 可以是调用方复用的缓冲区，方法返回后实现不再引用它
+     */
+    void publish(String exchange, String routingKey, byte[] body, CompensationKey compensationKey) throws IOException;
+
+    // 发送带过期时间的消息 (配合死信队列实现延迟消息)
+    void publishDelayed(String exchange, String routingKey, byte[] body, long delayMillis) throws IOException;
+
+    // 批量发送带过期时间的消息，encoder 返回的数组在下一次调用前有效
+    <T> void publishDelayed(String exchange, String routingKey, List<T> items, Function<T, byte[]> encoder,
+                            long delayMillis) throws IOException;
+
+    // 设置消息丢失时的补偿处理器，参数为 补偿键 -> 丢失消息数
+    default void setPublishFailureHandler(Consumer<Map<CompensationKey, Integer>> handler) {
+    }
+
+    // --- 消费 ---
+
+    /**
+     * 订阅队列：启动 workers 个消费者，每个消费者最多持有 prefetch 条未确认消息</br>
+     * handlerFactory 为每个消费者创建一个回调，回调中用传入的 Acknowledger 确认消息
+     */
+    void subscribe(String queue, int prefetch, int workers,
+                   Function<Acknowledger, MessageHandler> handlerFactory) throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,167 @@
+package org.example.ticketsnatching;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 队列消息的二进制编解码</br>
+ * 格式：[byte 版本][byte 类型][字段...]，字符串字段为 [byte 长度][UTF-8字节] (最长255字节)，超时检查消息的订单ID为8字节 long。</br>
+ * 1. 编码：先算出消息的确切长度，只分配一个正好大小的数组，ASCII字符直接写入，不调用 getBytes。</br>
+ * 不使用 ThreadLocal 缓存：下单请求在每个请求一个的虚拟线程上编码，线程本地缓存只会变成每个请求的额外垃圾</br>
+ * 2. 解码：直接从 delivery.getBody() 按偏移读取字段，没有 split/正则和中间字符串；版本或类型不符时抛 IllegalArgumentException</br>
+ * 新增字段时提高版本号，解码器按版本分别读取。
+ */
+public class MessageCodec {
+    public static final byte VERSION = 1;
+
+    public static final byte TYPE_ORDER_REQUEST = 1;
+    public static final byte TYPE_PAYMENT = 2;
+    public static final byte TYPE_CANCEL = 3;
+    public static final byte TYPE_TIMEOUT = 4;
+
+    private static final int HEADER_SIZE = 2;
+    private static final int MAX_STRING_BYTES = 255;
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    // 下单请求：用户ID、商品ID
+    public record OrderRequest(String userId, String productId) {
+    }
+
+    // 支付请求：用户ID、订单ID
+    public record PaymentRequest(String userId, String orderId) {
+    }
+
+    public static byte[] encodeOrderRequest(String userId, String productId) {
+        byte[] buffer = newMessage(TYPE_ORDER_REQUEST, encodedLength(userId) + encodedLength(productId));
+        int position = putString(buffer, HEADER_SIZE, userId);
+        putString(buffer, position, productId);
+        return buffer;
+    }
+
+    public static byte[] encodePayment(String userId, String orderId) {
+        byte[] buffer = newMessage(TYPE_PAYMENT, encodedLength(userId) + encodedLength(orderId));
+        int position = putString(buffer, HEADER_SIZE, userId);
+        putString(buffer, position, orderId);
+        return buffer;
+    }
+
+    public static byte[] encodeCancel(String orderId) {
+        return encodeOrderId(TYPE_CANCEL, orderId);
+    }
+
+    // 超时检查消息由系统内部发出，订单ID直接写8字节 long
+    public static byte[] encodeTimeout(long orderId) {
+        byte[] buffer = newMessage(TYPE_TIMEOUT, Long.BYTES);
+        LONG.set(buffer, HEADER_SIZE, orderId);
+        return buffer;
+    }
+
+    private static byte[] encodeOrderId(byte type, String orderId) {
+        byte[] buffer = newMessage(type, encodedLength(orderId));
+        putString(buffer, HEADER_SIZE, orderId);
+        return buffer;
+    }
+
+    public static OrderRequest decodeOrderRequest(byte[] body) {
+        int position = checkHeader(body, TYPE_ORDER_REQUEST);
+        int userIdLength = stringLength(body, position);
+        String userId = getString(body, position, userIdLength);
+        position += 1 + userIdLength;
+        return new OrderRequest(userId, getString(body, position, stringLength(body, position)));
+    }
+
+    public static PaymentRequest decodePayment(byte[] body) {
+        int position = checkHeader(body, TYPE_PAYMENT);
+        int userIdLength = stringLength(body, position);
+        String userId = getString(body, position, userIdLength);
+        position += 1 + userIdLength;
+        return new PaymentRequest(userId, getString(body, position, stringLength(body, position)));
+    }
+
+    public static String decodeCancel(byte[] body) {
+        int position = checkHeader(body, TYPE_CANCEL);
+        return getString(body, position, stringLength(body, position));
+    }
+
+    public static long decodeTimeout(byte[] body) {
+        int position = checkHeader(body, TYPE_TIMEOUT);
+        if (body.length < position + Long.BYTES) {
+            throw new IllegalArgumentException("超时检查消息过短: " + body.length + " 字节");
+        }
+        return (long) LONG.get(body, position);
+    }
+
+    private static byte[] newMessage(byte type, int bodyLength) {
+        byte[] buffer = new byte[HEADER_SIZE + bodyLength];
+        buffer[0] = VERSION;
+        buffer[1] = type;
+        return buffer;
+    }
+
+    // 字符串字段编码后的长度 (含长度字节)，超长时抛 IllegalArgumentException
+    private static int encodedLength(String value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) >= 0x80) {
+                length = value.getBytes(StandardCharsets.UTF_8).length;
+                break;
+            }
+        }
+        checkLength(length);
+        return 1 + length;
+    }
+
+    private static int putString(byte[] buffer, int position, String value) {
+        int length = value.length();
+        int start = position + 1;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                // 非ASCII字符串走标准UTF-8编码
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                buffer[position] = (byte) bytes.length;
+                System.arraycopy(bytes, 0, buffer, start, bytes.length);
+                return start + bytes.length;
+            }
+            buffer[start + i] = (byte) c;
+        }
+        buffer[position] = (byte) length;
+        return start + length;
+    }
+
+    private static void checkLength(int length) {
+        if (length > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("消息字段过长: " + length + " 字节，最长 " + MAX_STRING_BYTES);
+        }
+    }
+
+    private static int checkHeader(byte[] body, byte expectedType) {
+        if (body.length < HEADER_SIZE) {
+            throw new IllegalArgumentException("消息过短: " + body.length + " 字节");
+        }
+        if (body[0] != VERSION) {
+            throw new IllegalArgumentException("不支持的消息版本: " + body[0]);
+        }
+        if (body[1] != expectedType) {
+            throw new IllegalArgumentException("消息类型不符，期望 " + expectedType + "，实际 " + body[1]);
+        }
+        return HEADER_SIZE;
+    }
+
+    private static int stringLength(byte[] body, int position) {
+        if (position >= body.length) {
+            throw new IllegalArgumentException("消息不完整，缺少字段");
+        }
+        int length = body[position] & 0xFF;
+        if (position + 1 + length > body.length) {
+            throw new IllegalArgumentException("消息不完整，字段长度 " + length + " 超出消息长度");
+        }
+        return length;
+    }
+
+    private static String getString(byte[] body, int position, int length) {
+        return new String(body, position + 1, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,279 @@
+package org.example.ticketsnatching;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 进程内预分配的多生产者、多消费者环形队列 (一个队列一个)</br>
+ * 与 aqs.BoundedBuffer 的一把锁 + 两个条件不同，这里生产和消费都不加锁，只靠序号协调：</br>
+ * 1. 生产者CAS领取下一个序号 (nextClaim)，把消息拷贝进对应槽位后以 release 语义写入该槽的圈数表示可读，</br>
+ * 多个生产者并行写不同槽位，互不等待</br>
+ * 2. 消费者CAS领取下一个待消费序号 (workSequence)，等待该槽可读后回调处理</br>
+ * 3. 序号屏障：每个消费者公布自己仍持有的最小序号 (floor，未确认的消息一直持有)，</br>
+ * 生产者只有在 序号 - 容量 小于所有消费者的最小持有序号时才能覆盖槽位，队列满时生产者自旋等待 (背压)</br>
+ * 4. prefetch：每个消费者最多持有 prefetch 条未确认消息，确认后才释放槽位，所以回调可以攒批后再确认；</br>
+ * 回调抛出异常的消息直接确认丢弃 (与RabbitMQ不同，这里没有重新投递，也不能让一条坏消息挡住生产者)</br>
+ * 5. 空闲的消费者先自旋、再让出CPU，最后登记等待的序号后 park；生产者写完后只唤醒等待这个序号的消费者，</br>
+ * 没有惊群，忙时发送路径上也没有任何唤醒开销</br>
+ * 槽位中的消息数组按长度复用，稳定状态下收发都不产生垃圾。
+ */
+@Slf4j
+class MessageRingBuffer {
+    // 单核时自旋和让出CPU都只会拖慢持有CPU的生产者，直接休眠
+    private static final boolean MULTI_CORE = Runtime.getRuntime().availableProcessors() > 1;
+    private static final int SPIN_TRIES = MULTI_CORE ? 128 : 0;
+    private static final int YIELD_TRIES = MULTI_CORE ? 128 : 0;
+    private static final long MAX_PARK_NANOS = 1_000_000L;
+
+    private final String name;
+    private final int capacity;
+    private final int mask;
+    private final int shift;
+    private final byte[][] bodies;
+    // 每个槽最近一次写入的圈数 (序号 >>> shift)，-1 表示从未写入
+    private final AtomicIntegerArray published;
+    // 生产者下一个要领取的序号
+    private final AtomicLong nextClaim = new AtomicLong();
+    // 消费者下一个要领取的序号
+    private final AtomicLong workSequence = new AtomicLong();
+    // 生产者缓存的最小持有序号，只会偏小 (偏保守)
+    private volatile long cachedGating;
+    private volatile Worker[] workers = new Worker[0];
+    // 正在休眠等待消息的消费者数
+    private final AtomicInteger sleepers = new AtomicInteger();
+
+    MessageRingBuffer(String name, int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("环形队列容量必须是2的幂: " + capacity);
+        }
+        this.name = name;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.shift = Integer.numberOfTrailingZeros(capacity);
+        this.bodies = new byte[capacity][];
+        this.published = new AtomicIntegerArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    // 拷贝 body 写入队列，队列满时等待消费者释放槽位
+    void publish(byte[] body) {
+        long sequence = claim();
+        int index = (int) sequence & mask;
+        byte[] slot = bodies[index];
+        if (slot == null || slot.length != body.length) {
+            slot = new byte[body.length];
+            bodies[index] = slot;
+        }
+        System.arraycopy(body, 0, slot, 0, body.length);
+        // volatile写，与消费者 “登记休眠 -> 再检查” 配对，保证不会漏掉唤醒
+        published.set(index, (int) (sequence >>> shift));
+        if (sleepers.get() > 0) {
+            wakeWaiter(sequence);
+        }
+    }
+
+    private void wakeWaiter(long sequence) {
+        for (Worker worker : workers) {
+            if (worker.awaiting == sequence) {
+                LockSupport.unpark(worker.thread);
+                return;
+            }
+        }
+    }
+
+    private long claim() {
+        int attempts = 0;
+        while (true) {
+            long current = nextClaim.get();
+            long wrapPoint = current - capacity;
+            if (wrapPoint >= cachedGating) {
+                long gating = minimumHeld();
+                cachedGating = gating;
+                if (wrapPoint >= gating) {
+                    attempts = idle(attempts);
+                    continue;
+                }
+            }
+            if (nextClaim.compareAndSet(current, current + 1)) {
+                return current;
+            }
+        }
+    }
+
+    // 所有消费者仍持有的最小序号；还没被领取的消息也要保留
+    private long minimumHeld() {
+        long minimum = workSequence.get();
+        for (Worker worker : workers) {
+            minimum = Math.min(minimum, worker.floor);
+        }
+        return minimum;
+    }
+
+    private boolean isPublished(long sequence) {
+        return published.get((int) sequence & mask) == (int) (sequence >>> shift);
+    }
+
+    // 队列中尚未被领取的消息数
+    long backlog() {
+        return nextClaim.get() - workSequence.get();
+    }
+
+    Worker newWorker(String threadName, int prefetch, MessageBus.MessageHandler handler) {
+        Worker worker = new Worker(threadName, prefetch, handler);
+        synchronized (this) {
+            Worker[] current = workers;
+            Worker[] next = new Worker[current.length + 1];
+            System.arraycopy(current, 0, next, 0, current.length);
+            next[current.length] = worker;
+            workers = next;
+        }
+        return worker;
+    }
+
+    /**
+     * 等待策略：先自旋，再让出CPU，最后按指数退避睡眠 (上限1ms)，空闲时不占满CPU
+     *
+     * @return 下一次调用时传入的等待次数
+     */
+    static int idle(int attempts) {
+        if (attempts < SPIN_TRIES) {
+            Thread.onSpinWait();
+        } else if (attempts < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, 1_000L << Math.min(10, (attempts - SPIN_TRIES - YIELD_TRIES) >> 4)));
+        }
+        return attempts + 1;
+    }
+
+    /**
+     * 一个消费者：独占一个线程，按领取顺序持有未确认的消息</br>
+     * 投递标签就是消息序号，同一消费者收到的标签递增，multiple=true 确认该标签及之前本消费者持有的所有消息
+     */
+    class Worker implements Runnable, MessageBus.Acknowledger {
+        private final Thread thread;
+        private final MessageBus.MessageHandler handler;
+        // 未确认消息的序号 (循环数组) 和确认标记
+        private final long[] pending;
+        private final boolean[] acked;
+        private int head;
+        private int count;
+        // 正在领取或最近领取的序号
+        private long cursor;
+        // 本消费者仍持有的最小序号，生产者据此判断槽位能否覆盖
+        volatile long floor;
+        // 休眠等待的序号，没有休眠时为-1
+        volatile long awaiting = -1;
+        private volatile boolean running = true;
+
+        private Worker(String threadName, int prefetch, MessageBus.MessageHandler handler) {
+            this.handler = handler;
+            this.pending = new long[prefetch];
+            this.acked = new boolean[prefetch];
+            this.cursor = workSequence.get();
+            this.floor = cursor;
+            this.thread = SeckillExecutors.newConsumerThread(threadName, this);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            int attempts = 0;
+            while (running) {
+                long next = workSequence.get();
+                boolean full;
+                synchronized (this) {
+                    full = count == pending.length;
+                    if (!full) {
+                        cursor = next;
+                        floor = count > 0 ? pending[head] : next;
+                    }
+                }
+                if (full) {
+                    // 未确认消息达到 prefetch，等待确认 (不能持有锁等待，确认可能来自其他线程)
+                    attempts = idle(attempts);
+                    continue;
+                }
+                if (!workSequence.compareAndSet(next, next + 1)) {
+                    continue;
+                }
+                while (!isPublished(next)) {
+                    if (!running) {
+                        return;
+                    }
+                    if (attempts < SPIN_TRIES + YIELD_TRIES) {
+                        attempts = idle(attempts);
+                    } else {
+                        awaitPublished(next);
+                    }
+                }
+                attempts = 0;
+                synchronized (this) {
+                    int tail = (head + count) % pending.length;
+                    pending[tail] = next;
+                    acked[tail] = false;
+                    count++;
+                }
+                try {
+                    handler.handle(bodies[(int) next & mask], next);
+                } catch (Throwable e) {
+                    // 进程内队列没有重新投递：未确认的消息会一直压住本消费者的 floor，
+                    // 生产者绕满一圈后整个队列的发送都会被卡住，所以处理失败的消息记录日志后确认丢弃
+                    log.error("[消息总线] 队列 {} 的消息 {} 处理异常，已丢弃", name, next, e);
+                    ack(next, false);
+                }
+            }
+        }
+
+        // 登记休眠后再检查一次，生产者在这之后写入的消息一定能看到登记并唤醒；park 带超时兜底
+        private void awaitPublished(long sequence) {
+            awaiting = sequence;
+            sleepers.incrementAndGet();
+            try {
+                if (!isPublished(sequence) && running) {
+                    LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                }
+            } finally {
+                sleepers.decrementAndGet();
+                awaiting = -1;
+            }
+        }
+
+        @Override
+        public synchronized void ack(long deliveryTag, boolean multiple) {
+            for (int i = 0; i < count; i++) {
+                int index = (head + i) % pending.length;
+                long sequence = pending[index];
+                if (sequence == deliveryTag || (multiple && sequence < deliveryTag)) {
+                    acked[index] = true;
+                }
+                if (sequence >= deliveryTag) {
+                    break;
+                }
+            }
+            while (count > 0 && acked[head]) {
+                head = (head + 1) % pending.length;
+                count--;
+            }
+            floor = count > 0 ? pending[head] : cursor;
+        }
+
+        void stop() {
+            running = false;
+            LockSupport.unpark(thread);
+        }
+
+        void join() throws InterruptedException {
+            thread.join(1000);
+        }
+    }
+}
@@ -1,56 +1,245 @@
 package org.example.ticketsnatching;
 
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.DeliverCallback;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static org.example.ticketsnatching.Config.ORDER_QUEUE;
 
+/**
+ * 订单消费者</br>
+ * 开启批量模式 ({@link Config#ORDER_CONSUMER_BATCHING}) 时，每个消费者攒够 {@link Config#ORDER_CONSUMER_BATCH_SIZE} 条消息</br>
+ * 或等待 {@link Config#ORDER_CONSUMER_BATCH_WAIT_MS} 毫秒后整批处理：一次批量建单、一起登记超时检查，</br>
+ * 最后用 multiple=true 一次确认整批消息。
+ */
 @Slf4j
 public class OrderConsumer implements Runnable {
+    private static final ScheduledExecutorService batchTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "order-batch-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     @Override
     public void run() {
         try {
-            Channel channel = MQManager.getChannel();
             log.info("订单消费者启动，等待消息...");
+            MQManager.startConsumer(ORDER_QUEUE, Config.ORDER_CONSUMER_PREFETCH, Config.ORDER_CONSUMER_WORKERS,
+                    acknowledger -> Config.ORDER_CONSUMER_BATCHING
+                            ? new OrderBatch(acknowledger)
+                            : (body, deliveryTag) -> handle(acknowledger, body, deliveryTag));
+        } catch (IOException e) {
+            log.error("订单消费者异常", e);
+        }
+    }
+
+    // 处理并确认，每个消费者的确认互不影响
+    private void handle(MessageBus.Acknowledger acknowledger, byte[] body, long deliveryTag) throws IOException {
+        MessageCodec.OrderRequest request;
+        try {
+            request = MessageCodec.decodeOrderRequest(body);
+        } catch (IllegalArgumentException e) {
+            log.error("[订单消费者] 无法解析的下单消息，已丢弃", e);
+            acknowledger.ack(deliveryTag, false);
+            return;
+        }
+        String userId = request.userId();
+        String productId = request.productId();
+        long orderId = DatabaseManager.nextOrderId();
+
+        log.info("[订单消费者] 收到创建订单请求: userId={}, productId={}", userId, productId);
+
+        // 核心逻辑: 在数据库创建订单
+        long writeStart = SeckillMetrics.start();
+        boolean success = DatabaseManager.createOrderInDB(orderId, productId, userId);
+        SeckillMetrics.record(SeckillMetrics.Stage.ORDER_DB_WRITE, writeStart);
+
+        if (success) {
+            log.info("[订单消费者] 订单 {} 创建成功 (待支付)，登记超时检查...", orderId);
+            // 登记超时检查，用于15秒后检查订单是否支付
+            scheduleTimeouts(List.of(orderId));
+        }
+        notifyUser(userId, orderId, productId, success);
+        acknowledger.ack(deliveryTag, false);
+    }
+
+    /**
+     * 登记超时检查，订单已经创建，登记失败也不能丢：</br>
+     * 整批登记失败时逐个重试，仍然失败的订单隔 {@link Config#ORDER_TIMEOUT_RETRY_MS} 后在定时线程上再试，直到登记成功，</br>
+     * 否则这些订单会一直停在待支付，库存永远不会归还。超时处理按订单状态CAS流转，部分订单被重复登记也没有影响。
+     */
+    private static void scheduleTimeouts(List<Long> orderIds) {
+        if (orderIds.isEmpty()) {
+            return;
+        }
+        try {
+            TimeoutManager.scheduleAll(orderIds);
+            return;
+        } catch (IOException | RuntimeException e) {
+            log.warn("[订单消费者] 批量登记超时检查失败，逐个重试 {} 个订单", orderIds.size(), e);
+        }
+        List<Long> failed = new ArrayList<>();
+        for (long orderId : orderIds) {
+            try {
+                TimeoutManager.schedule(orderId);
+            } catch (IOException | RuntimeException e) {
+                failed.add(orderId);
+            }
+        }
+        if (!failed.isEmpty()) {
+            log.error("[订单消费者] {} 个订单登记超时检查失败，{} ms 后重试", failed.size(), Config.ORDER_TIMEOUT_RETRY_MS);
+            batchTimer.schedule(() -> scheduleTimeouts(failed), Config.ORDER_TIMEOUT_RETRY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // 订单ID只在发给用户的通知里转成字符串
+    private static void notifyUser(String userId, long id, String productId, boolean success) {
+        String orderId = String.valueOf(id);
+        if (success) {
+            // 通过WebSocket通知用户下单成功
+            String notification = String.format("下单成功！您的订单号是: %s，请在15秒内支付。", orderId);
+            WebSocketManager.sendOrderNotification(userId, orderId, notification);
+        } else {
+            log.warn("[订单消费者] 数据库库存不足，订单创建失败。productId={}", productId);
+            // 注意：这里可能需要一个补偿机制，将Redis中预扣减的库存加回去。为简化原型，暂不实现。
+            // 通过WebSocket通知用户下单失败
+            WebSocketManager.sendOrderNotification(userId, orderId, "非常抱歉，下单失败，商品已被抢光。");
+        }
+    }
+
+    /**
+     * 一个消费者的消息批次</br>
+     * 同一消费者的消息串行投递，但定时刷新在定时线程上执行，所以攒批和刷新都要加锁；</br>
+     * 刷新时有建单和MQ发送等阻塞操作，用 ReentrantLock 而不是 synchronized，避免钉住虚拟线程的载体线程。</br>
+     * 这个消费者的所有消息都经过批次处理，所以对最后一条消息 multiple=true 确认正好覆盖整批。</br>
+     * 消息收到时就解码并分配订单ID，重试时订单ID不变：</br>
+     * 1. 建单中途抛出异常时已经创建的订单保持有效，重试前按订单ID查表，只提交还没有创建的订单，不会重复建单</br>
+     * 2. 建单成功后立即移出批次，之后只是确认失败时重试确认，不会再建一次</br>
+     * 3. 失败不抛给消息总线 (RabbitMQ客户端会关闭消费Channel并重新投递整批)，而是留在批次里由定时器重试
+     */
+    private static class OrderBatch implements MessageBus.MessageHandler {
+        private final MessageBus.Acknowledger acknowledger;
+        private final ReentrantLock lock = new ReentrantLock();
+        // 已解码、还没有写入数据库的订单
+        private List<DatabaseManager.NewOrder> pending = new ArrayList<>(Config.ORDER_CONSUMER_BATCH_SIZE);
+        // 上次建单抛出了异常，pending 中可能有订单已经创建
+        private boolean partiallyCreated;
+        // 已收到但还没有确认的消息数 (包括无法解析的消息)
+        private int unacked;
+        private long lastTag;
+        private boolean timerArmed;
+
+        OrderBatch(MessageBus.Acknowledger acknowledger) {
+            this.acknowledger = acknowledger;
+        }
 
-            DeliverCallback deliverCallback = (consumerTag, delivery) -> {
-                String message = new String(delivery.getBody(), StandardCharsets.UTF_8);
-                // 消息格式: "userId,productId"
-                String[] parts = message.split(",");
-                String userId = parts[0];
-                String productId = parts[1];
-                String orderId = UUID.randomUUID().toString().substring(0, 8);
-
-                log.info("[订单消费者] 收到创建订单请求: userId={}, productId={}", userId, productId);
-
-                // 核心逻辑: 在数据库创建订单
-                boolean success = DatabaseManager.createOrderInDB(orderId, productId, userId);
-
-                if (success) {
-                    log.info("[订单消费者] 订单 {} 创建成功 (待支付)，发送超时取消延迟消息...", orderId);
-                    // 发送延迟消息，用于15秒后检查订单是否支付
-                    MQManager.sendDelayedTimeoutMessage(orderId);
-                    // 通过WebSocket通知用户下单成功
-                    String notification = String.format("下单成功！您的订单号是: %s，请在15秒内支付。", orderId);
-                    WebSocketManager.sendMessageToUser(userId, notification);
+        @Override
+        public void handle(byte[] body, long deliveryTag) {
+            lock.lock();
+            try {
+                try {
+                    MessageCodec.OrderRequest request = MessageCodec.decodeOrderRequest(body);
+                    pending.add(new DatabaseManager.NewOrder(DatabaseManager.nextOrderId(), request.productId(), request.userId()));
+                } catch (IllegalArgumentException e) {
+                    log.error("[订单消费者] 无法解析的下单消息，已丢弃", e);
+                }
+                unacked++;
+                lastTag = deliveryTag;
+                if (pending.size() >= Config.ORDER_CONSUMER_BATCH_SIZE) {
+                    tryFlush();
                 } else {
-                    log.warn("[订单消费者] 数据库库存不足，订单创建失败。productId={}", productId);
-                    // 注意：这里可能需要一个补偿机制，将Redis中预扣减的库存加回去。为简化原型，暂不实现。
-                    // 通过WebSocket通知用户下单失败
-                    WebSocketManager.sendMessageToUser(userId, "非常抱歉，下单失败，商品已被抢光。");
+                    // 批次的第一条消息：最多等待 BATCH_WAIT_MS 后刷新
+                    armTimer(Config.ORDER_CONSUMER_BATCH_WAIT_MS);
                 }
-                channel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
-            };
-            channel.basicConsume(ORDER_QUEUE, false, deliverCallback, consumerTag -> {
-            });
-        } catch (IOException e) {
-            log.error("订单消费者异常", e);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void flushOnTimer() {
+            lock.lock();
+            try {
+                timerArmed = false;
+                tryFlush();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // 刷新失败时批次保留，定时重试，不依赖后续消息触发
+        private void tryFlush() {
+            try {
+                flush();
+            } catch (IOException | RuntimeException e) {
+                log.error("[订单消费者] 刷新订单批次失败，{} ms 后重试", Config.ORDER_CONSUMER_RETRY_MS, e);
+                armTimer(Config.ORDER_CONSUMER_RETRY_MS);
+            }
+        }
+
+        private void armTimer(long delayMillis) {
+            if (!timerArmed) {
+                timerArmed = true;
+                batchTimer.schedule(this::flushOnTimer, delayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void flush() throws IOException {
+            if (!pending.isEmpty()) {
+                createOrders();
+            }
+            if (unacked > 0) {
+                acknowledger.ack(lastTag, true);
+                unacked = 0;
+            }
+        }
+
+        private void createOrders() {
+            List<DatabaseManager.NewOrder> orders = pending;
+            boolean[] results = new boolean[orders.size()];
+            List<DatabaseManager.NewOrder> submit = orders;
+            int[] positions = null;
+            if (partiallyCreated) {
+                submit = new ArrayList<>(orders.size());
+                positions = new int[orders.size()];
+                for (int i = 0; i < orders.size(); i++) {
+                    if (DatabaseManager.getOrder(orders.get(i).orderId()) != null) {
+                        results[i] = true;
+                    } else {
+                        positions[submit.size()] = i;
+                        submit.add(orders.get(i));
+                    }
+                }
+            }
+
+            long writeStart = SeckillMetrics.start();
+            partiallyCreated = true;
+            boolean[] submitted = DatabaseManager.createOrdersInDB(submit);
+            partiallyCreated = false;
+            SeckillMetrics.record(SeckillMetrics.Stage.ORDER_DB_WRITE, writeStart, submit.size());
+            for (int i = 0; i < submitted.length; i++) {
+                results[positions == null ? i : positions[i]] = submitted[i];
+            }
+            pending = new ArrayList<>(Config.ORDER_CONSUMER_BATCH_SIZE);
+
+            List<Long> created = new ArrayList<>(orders.size());
+            for (int i = 0; i < results.length; i++) {
+                if (results[i]) {
+                    created.add(orders.get(i).orderId());
+                }
+            }
+            // 订单已经创建，登记失败时在后台重试，仍然确认消息，避免重新投递产生重复订单
+            scheduleTimeouts(created);
+            for (int i = 0; i < results.length; i++) {
+                DatabaseManager.NewOrder order = orders.get(i);
+                notifyUser(order.userId(), order.orderId(), order.productId(), results[i]);
+            }
+            log.info("[订单消费者] 批量处理 {} 条下单消息，成功创建 {} 个订单", orders.size(), created.size());
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,86 @@
+package org.example.ticketsnatching;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 雪花算法订单ID生成器</br>
+ * 64位ID：[1位符号 0][41位毫秒时间戳][10位节点号][4位分段号][8位序号]，</br>
+ * 时间戳相对 {@link #EPOCH_MILLIS}，可用约69年；ID总是正数，可以直接作为紧凑订单表等基本类型索引的键。</br>
+ * 1. 无锁：线程按线程ID落到一个分段，每个分段一个 (时间戳, 序号) 状态字，只在自己的分段上CAS，</br>
+ * 不同分段的线程互不竞争；分段号写进ID，不同分段生成的ID不会重复</br>
+ * 2. 不分配对象：状态字存放在 AtomicLongArray 中，按缓存行间隔存放避免伪共享</br>
+ * 3. 一毫秒内序号用完或时钟回拨时不等待，直接借用下一毫秒的时间戳，分段内的ID始终单调递增；</br>
+ * 整体上ID按时间大致有序 (同一毫秒内不同分段之间不保证顺序)</br>
+ * 4. 重启恢复时通过 {@link #advancePast(long)} 保证新ID大于已恢复的订单ID
+ */
+public class OrderIdGenerator {
+    // 2024-01-01T00:00:00Z
+    public static final long EPOCH_MILLIS = 1704067200000L;
+
+    private static final int SEQUENCE_BITS = 8;
+    private static final int STRIPE_BITS = 4;
+    private static final int NODE_BITS = 10;
+    private static final int STRIPE_SHIFT = SEQUENCE_BITS;
+    private static final int NODE_SHIFT = SEQUENCE_BITS + STRIPE_BITS;
+    private static final int TIMESTAMP_SHIFT = SEQUENCE_BITS + STRIPE_BITS + NODE_BITS;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+    public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+    // 一个 long 8字节，间隔8个元素即一个缓存行
+    private static final int PADDING = 8;
+
+    private final long nodeBits;
+    // 每个分段的状态字：[时间戳][8位序号]
+    private final AtomicLongArray states = new AtomicLongArray(STRIPES * PADDING);
+
+    public OrderIdGenerator(int nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("节点号超出范围 [0, " + MAX_NODE_ID + "]: " + nodeId);
+        }
+        this.nodeBits = (long) nodeId << NODE_SHIFT;
+    }
+
+    public long nextId() {
+        int stripe = (int) (Thread.currentThread().threadId() & (STRIPES - 1));
+        int index = stripe * PADDING;
+        long now = System.currentTimeMillis() - EPOCH_MILLIS;
+        while (true) {
+            long state = states.get(index);
+            long timestamp = state >>> SEQUENCE_BITS;
+            long next;
+            if (now > timestamp) {
+                next = now << SEQUENCE_BITS;
+            } else if ((state & SEQUENCE_MASK) < SEQUENCE_MASK) {
+                next = state + 1;
+            } else {
+                // 本毫秒序号用完 (或时钟回拨)：借用下一毫秒
+                next = (timestamp + 1) << SEQUENCE_BITS;
+            }
+            if (states.compareAndSet(index, state, next)) {
+                return ((next >>> SEQUENCE_BITS) << TIMESTAMP_SHIFT) | nodeBits
+                        | ((long) stripe << STRIPE_SHIFT) | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    // 之后生成的ID都大于 orderId (重启恢复时调用，保证不与已恢复的订单重复)
+    public void advancePast(long orderId) {
+        long floor = (timestampOf(orderId) << SEQUENCE_BITS) | SEQUENCE_MASK;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            int index = stripe * PADDING;
+            long state;
+            while ((state = states.get(index)) < floor && !states.compareAndSet(index, state, floor)) {
+                // CAS失败说明分段已前进，重新比较
+            }
+        }
+    }
+
+    // ID中的时间戳 (相对 EPOCH_MILLIS 的毫秒数)
+    public static long timestampOf(long orderId) {
+        return orderId >>> TIMESTAMP_SHIFT;
+    }
+
+    public static int nodeOf(long orderId) {
+        return (int) ((orderId >>> NODE_SHIFT) & MAX_NODE_ID);
+    }
+}
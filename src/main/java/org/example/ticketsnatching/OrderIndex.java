@@ -0,0 +1,119 @@
+package org.example.ticketsnatching;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 订单二级索引：按用户、按状态</br>
+ * 与订单表一起增量维护，“我的订单”、“待支付订单数”这类查询只与结果大小有关，不再遍历整张订单表。</br>
+ * </br>
+ * 状态流转时的维护顺序：先把订单加入目标状态集合，再CAS流转状态，成功后才从原状态集合移除；</br>
+ * 失败时只撤销本次真正加入的条目 (重复投递的消息、并发的同一流转不会删掉别人加入的条目)，</br>
+ * 撤销后如果订单的实际状态已经是目标状态 (并发的另一方流转成功但没有重复加入)，由调用方重新加入。</br>
+ * 所以任何时刻订单都至少在“当前状态”的集合里，按状态查询时再用订单的实际状态过滤一次，结果既不会漏也不会错。</br>
+ * 各状态的订单数用 LongAdder 统计，在流转成功后更新。</br>
+ * 按用户的索引只追加不删除，每个用户一个按需翻倍的 long 数组，而不是每个用户一个并发集合：</br>
+ * 千万级订单恢复时需要GC复制的对象少一半以上 (见 benchmark.RecoveryBenchmark)。
+ */
+class OrderIndex {
+    private final Map<String, UserOrders> byUser = new ConcurrentHashMap<>();
+    private final Map<OrderStatus, Set<OrderKey>> byStatus = new EnumMap<>(OrderStatus.class);
+    private final Map<OrderStatus, LongAdder> counts = new EnumMap<>(OrderStatus.class);
+
+    OrderIndex() {
+        for (OrderStatus status : OrderStatus.values()) {
+            byStatus.put(status, ConcurrentHashMap.newKeySet());
+            counts.put(status, new LongAdder());
+        }
+    }
+
+    void onInsert(long orderId, String userId, OrderStatus status) {
+        byUser.computeIfAbsent(userId, k -> new UserOrders()).add(orderId);
+        byStatus.get(status).add(new OrderKey(orderId));
+        counts.get(status).increment();
+    }
+
+    // 快照加载的一段订单，userIds 为每个订单的用户ID；各状态的计数每段只更新一次
+    void onLoad(long[] orderIds, String[] userIds, byte[] statuses, int count) {
+        OrderStatus[] values = OrderStatus.values();
+        int[] loaded = new int[values.length];
+        for (int i = 0; i < count; i++) {
+            byUser.computeIfAbsent(userIds[i], k -> new UserOrders()).add(orderIds[i]);
+            byStatus.get(values[statuses[i]]).add(new OrderKey(orderIds[i]));
+            loaded[statuses[i]]++;
+        }
+        for (OrderStatus status : values) {
+            counts.get(status).add(loaded[status.ordinal()]);
+        }
+    }
+
+    // 在CAS流转状态之前调用，返回本次是否真正加入了目标状态集合
+    boolean beforeTransition(long orderId, OrderStatus target) {
+        return byStatus.get(target).add(new OrderKey(orderId));
+    }
+
+    // 在CAS流转状态之后调用，added 为 beforeTransition 的返回值
+    void afterTransition(long orderId, OrderStatus expected, OrderStatus target, boolean success, boolean added) {
+        OrderKey key = new OrderKey(orderId);
+        if (success) {
+            byStatus.get(expected).remove(key);
+            counts.get(expected).decrement();
+            counts.get(target).increment();
+        } else if (added) {
+            byStatus.get(target).remove(key);
+        }
+    }
+
+    // 流转失败并撤销后，订单实际已处于该状态时重新加入
+    void ensureIndexed(long orderId, OrderStatus status) {
+        byStatus.get(status).add(new OrderKey(orderId));
+    }
+
+    // 用户的订单ID，返回的是副本
+    long[] orderIdsOfUser(String userId) {
+        UserOrders orders = byUser.get(userId);
+        return orders == null ? new long[0] : orders.toArray();
+    }
+
+    Set<OrderKey> orderIdsWithStatus(OrderStatus status) {
+        return byStatus.get(status);
+    }
+
+    long count(OrderStatus status) {
+        return counts.get(status).sum();
+    }
+
+    void clear() {
+        byUser.clear();
+        byStatus.values().forEach(Set::clear);
+        counts.values().forEach(LongAdder::reset);
+    }
+
+    /**
+     * 一个用户的订单ID，每个订单只在创建 (或恢复) 时追加一次</br>
+     * 追加加锁，先写入元素再发布数量；读取不加锁，先读数量再读数组，读到的数组一定包含前 size 个元素
+     */
+    private static final class UserOrders {
+        private volatile long[] ids = new long[2];
+        private volatile int size;
+
+        synchronized void add(long orderId) {
+            long[] current = ids;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, size * 2);
+                ids = current;
+            }
+            current[size] = orderId;
+            size = size + 1;
+        }
+
+        long[] toArray() {
+            int n = size;
+            return Arrays.copyOf(ids, n);
+        }
+    }
+}
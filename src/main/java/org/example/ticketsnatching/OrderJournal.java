@@ -0,0 +1,467 @@
+package org.example.ticketsnatching;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * 订单预写日志 (WAL)</br>
+ * 订单创建和状态流转以追加方式写入内存映射文件：</br>
+ * 1. 写入线程用不超过容量的CAS预留位置，把记录拷贝进映射区，最后以 release 语义写入记录长度表示写完，全程无锁；</br>
+ * 日志写满时预留失败 (返回false或-1)，由调用方滚动到新一代日志后重试，写入位置不会越过容量溢出</br>
+ * 2. 后台刷盘线程从已持久化位置向后扫描连续写完的记录，一次 force 持久化一批 (组提交)，</br>
+ * 攒够 batchSize 条记录或到达刷盘间隔就刷一次，多个写入线程共享一次 fsync</br>
+ * 3. syncCommit=false 时写入方只付出一次内存拷贝的开销 (微秒级)；syncCommit=true 时等待所在批次刷盘后才返回</br>
+ * 4. 创建订单分两步：{@link #reserveCreate} 先预留位置并拷贝记录，订单写入内存后再 {@link #commit} 发布，</br>
+ * 写内存失败则 {@link #abort} 把记录改成空记录。滚动日志时先 {@link #seal} 封口并等待已预留的记录发布完，</br>
+ * 保证旧日志里的订单在之后遍历内存时都已经可见。等待有上限：超时后未发布的预留视为放弃，</br>
+ * 写入方之后发布时 {@link #commit} 返回false，由写入方把记录补写到新日志</br>
+ * </br>
+ * 记录格式 (8字节对齐)：[int 记录总长][int 内容长度][int CRC32C][byte 类型][字段...]，</br>
+ * 订单ID为8字节 long，字符串字段为 [short 长度][UTF-8字节]。记录总长为0表示后面没有数据。</br>
+ * 重启时通过 {@link #replay(Path, RecordVisitor)} 按写入顺序读出所有完整记录。
+ */
+@Slf4j
+public class OrderJournal implements AutoCloseable {
+    public static final byte TYPE_CREATE = 1;
+    public static final byte TYPE_STATUS = 2;
+    public static final byte TYPE_PRODUCT = 3;
+    // 预留后放弃的记录，重放时跳过
+    public static final byte TYPE_SKIP = 4;
+
+    static final int HEADER_SIZE = 12;
+    private static final int MAX_BODY_SIZE = 4096;
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final ThreadLocal<ByteBuffer> scratch = ThreadLocal.withInitial(() -> ByteBuffer.allocate(MAX_BODY_SIZE));
+    private static final ThreadLocal<CRC32C> checksum = ThreadLocal.withInitial(CRC32C::new);
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final boolean syncCommit;
+
+    private final AtomicInteger writePosition;
+    private volatile int durablePosition;
+    private final AtomicLong appendedRecords = new AtomicLong();
+    private volatile long flushedRecords;
+
+    // 同步提交时等待刷盘的线程
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition durable = lock.newCondition();
+    private final AtomicInteger syncWaiters = new AtomicInteger();
+
+    private final LongAdder forces = new LongAdder();
+    private final Thread flusher;
+    // 关闭流程开始 (刷盘线程退出) / 关闭完成 (最后一次刷盘之后)
+    private volatile boolean closing;
+    private volatile boolean closed;
+    // 封口等待超时时第一条未发布记录的位置，从这里开始的记录在发布时由写入方补写到新日志
+    private volatile int abandonedFrom = Integer.MAX_VALUE;
+
+    public OrderJournal(Path path, int capacity, int batchSize, long flushIntervalMicros, boolean syncCommit) throws IOException {
+        this.path = path;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MICROSECONDS.toNanos(flushIntervalMicros);
+        this.syncCommit = syncCommit;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        // 已有日志则从最后一条完整记录之后继续追加
+        int end = scanValidEnd(buffer, 0, capacity);
+        clearTail(end);
+        this.writePosition = new AtomicInteger(end);
+        this.durablePosition = end;
+        this.flusher = new Thread(this::flushLoop, "order-journal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+        log.info("[订单日志] 打开 {}，已有数据 {} 字节，组提交批量 {}，同步提交: {}", path, end, batchSize, syncCommit);
+    }
+
+    // 日志已满或已封口时返回false
+    public boolean appendCreate(long orderId, String productId, String userId) {
+        int position = reserveCreate(orderId, productId, userId);
+        return position >= 0 && commit(position);
+    }
+
+    // 预留并写入创建记录但先不发布，返回记录位置；日志已满或已封口时返回-1
+    public int reserveCreate(long orderId, String productId, String userId) {
+        ByteBuffer body = scratch.get().clear();
+        body.put(TYPE_CREATE);
+        body.putLong(orderId);
+        putString(body, productId);
+        putString(body, userId);
+        return reserve(body);
+    }
+
+    public boolean appendStatus(long orderId, OrderStatus status) {
+        ByteBuffer body = scratch.get().clear();
+        body.put(TYPE_STATUS);
+        body.putLong(orderId);
+        body.put((byte) status.ordinal());
+        return append(body);
+    }
+
+    public boolean appendProduct(String productId, int initialStock) {
+        ByteBuffer body = scratch.get().clear();
+        body.put(TYPE_PRODUCT);
+        putString(body, productId);
+        body.putInt(initialStock);
+        return append(body);
+    }
+
+    private boolean append(ByteBuffer body) {
+        int position = reserve(body);
+        return position >= 0 && commit(position);
+    }
+
+    // CAS预留不超过容量的位置并拷贝记录内容，记录长度仍为0 (未发布)
+    private int reserve(ByteBuffer body) {
+        int bodyLength = body.position();
+        int recordLength = recordLength(bodyLength);
+        int position;
+        do {
+            position = writePosition.get();
+            if (position > capacity - recordLength) {
+                return -1;
+            }
+        } while (!writePosition.compareAndSet(position, position + recordLength));
+        CRC32C crc = checksum.get();
+        crc.reset();
+        crc.update(body.array(), 0, bodyLength);
+        buffer.put(position + HEADER_SIZE, body.array(), 0, bodyLength);
+        buffer.putInt(position + 4, bodyLength);
+        buffer.putInt(position + 8, (int) crc.getValue());
+        return position;
+    }
+
+    /**
+     * 发布预留的记录，只能由预留它的线程调用一次</br>
+     * 返回false表示封口等待已经超时、这条记录不算在这个日志里，调用方应把它写到当前日志
+     */
+    public boolean commit(int position) {
+        int recordLength = recordLength(buffer.getInt(position + 4));
+        publish(position, recordLength);
+        // 与 seal 中 abandonedFrom 的写入构成 Dekker 式的可见性：要么封口方看到了长度，要么这里看到了放弃位置
+        if (position >= abandonedFrom) {
+            return false;
+        }
+        if (syncCommit) {
+            awaitDurable(position + recordLength);
+        }
+        return true;
+    }
+
+    // 最后写记录长度，刷盘线程读到非0长度即说明整条记录已经写完；空记录与普通记录一样计入组提交的批量
+    private void publish(int position, int recordLength) {
+        INT.setVolatile(buffer, position, recordLength);
+        if (appendedRecords.incrementAndGet() - flushedRecords >= batchSize) {
+            LockSupport.unpark(flusher);
+        }
+    }
+
+    // 放弃预留的记录：改写为长度不变的空记录再发布，重放时跳过
+    public void abort(int position) {
+        int recordLength = recordLength(buffer.getInt(position + 4));
+        CRC32C crc = checksum.get();
+        crc.reset();
+        crc.update(TYPE_SKIP);
+        buffer.put(position + HEADER_SIZE, TYPE_SKIP);
+        buffer.putInt(position + 4, 1);
+        buffer.putInt(position + 8, (int) crc.getValue());
+        publish(position, recordLength);
+    }
+
+    /**
+     * 封口：之后的预留都会失败，并最多等待 timeoutMillis 让封口前已预留的记录全部发布或放弃</br>
+     * 滚动日志时在切换到新日志之后调用。超时 (例如写入线程在预留之后卡住) 时不再等待：</br>
+     * 未发布的预留就地改成空记录，后面已经发布的记录在重放时仍然读得到；</br>
+     * 从第一条超时的记录开始，写入方之后发布时 {@link #commit} 返回false，由写入方补写到新日志，滚动和关闭不会被一个写入线程卡死
+     *
+     * @return 所有预留都已发布或放弃返回true，超时返回false
+     */
+    public boolean seal(long timeoutMillis) {
+        int end = writePosition.getAndSet(capacity);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        int position = durablePosition;
+        while (position < end) {
+            int recordLength = (int) INT.getVolatile(buffer, position);
+            if (recordLength != 0) {
+                position += recordLength;
+            } else if (System.nanoTime() - deadline < 0) {
+                Thread.onSpinWait();
+            } else {
+                recordLength = skipAbandoned(position);
+                if (recordLength == 0) {
+                    log.error("[订单日志] {} 封口等待超时，位置 {} 的预留还没有写入内容，之后的 {} 字节重放时读不到",
+                            path, position, end - position);
+                    return false;
+                }
+                position += recordLength;
+            }
+        }
+        if (abandonedFrom != Integer.MAX_VALUE) {
+            log.error("[订单日志] {} 封口等待超时，位置 {} 之后未发布的预留已改为空记录，写入方会把记录补写到新日志", path, abandonedFrom);
+            return false;
+        }
+        return true;
+    }
+
+    // 把超时未发布的预留改成类型为空记录、长度不变的记录并发布，返回记录长度；内容长度还没写入时返回0
+    private int skipAbandoned(int position) {
+        if (abandonedFrom == Integer.MAX_VALUE) {
+            abandonedFrom = position;
+        }
+        int bodyLength = buffer.getInt(position + 4);
+        if (bodyLength <= 0 || bodyLength > MAX_BODY_SIZE) {
+            return 0;
+        }
+        int recordLength = recordLength(bodyLength);
+        // 与 commit 中 abandonedFrom 的读取构成 Dekker 式的可见性：写入方要么在这之前已经发布，要么会看到放弃位置而补写
+        if ((int) INT.getVolatile(buffer, position) != 0) {
+            return recordLength;
+        }
+        buffer.put(position + HEADER_SIZE, TYPE_SKIP);
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(position + HEADER_SIZE, bodyLength));
+        buffer.putInt(position + 8, (int) crc.getValue());
+        INT.compareAndSet(buffer, position, 0, recordLength);
+        return recordLength;
+    }
+
+    private static int recordLength(int bodyLength) {
+        return (HEADER_SIZE + bodyLength + 7) & ~7;
+    }
+
+    private void awaitDurable(int end) {
+        if (durablePosition >= end) {
+            return;
+        }
+        syncWaiters.incrementAndGet();
+        lock.lock();
+        try {
+            while (durablePosition < end && !closed) {
+                durable.await(1, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+            syncWaiters.decrementAndGet();
+        }
+        // 日志已关闭或等待被中断：记录没有持久化，不能当作提交成功返回
+        if (durablePosition < end) {
+            throw new IllegalStateException("订单日志记录未能持久化 (日志已关闭或等待被中断): " + path);
+        }
+    }
+
+    // 攒够一批记录或到达刷盘间隔时刷盘，同步提交的写入线程也在这里被批量唤醒
+    private void flushLoop() {
+        long nextFlush = System.nanoTime() + flushIntervalNanos;
+        while (!closing) {
+            long remaining = nextFlush - System.nanoTime();
+            if (remaining > 0 && appendedRecords.get() - flushedRecords < batchSize) {
+                LockSupport.parkNanos(this, remaining);
+                continue;
+            }
+            flush();
+            nextFlush = System.nanoTime() + flushIntervalNanos;
+        }
+        flush();
+    }
+
+    // 持久化已写完的连续记录，只在刷盘线程 (或关闭时) 调用
+    private synchronized void flush() {
+        int start = durablePosition;
+        int limit = Math.min(writePosition.get(), capacity);
+        int end = start;
+        long records = 0;
+        while (end + HEADER_SIZE <= limit) {
+            int recordLength = (int) INT.getAcquire(buffer, end);
+            if (recordLength == 0) {
+                break;
+            }
+            end += recordLength;
+            records++;
+        }
+        if (end == start) {
+            return;
+        }
+        buffer.force(start, end - start);
+        forces.increment();
+        flushedRecords += records;
+        durablePosition = end;
+        if (syncWaiters.get() > 0) {
+            lock.lock();
+            try {
+                durable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // 重放时按顺序回调的记录处理器
+    public interface RecordVisitor {
+        void onCreate(long orderId, String productId, String userId);
+
+        void onStatus(long orderId, OrderStatus status);
+
+        void onProduct(String productId, int initialStock);
+    }
+
+    // 按写入顺序读出日志文件中所有完整且校验通过的记录，返回记录条数
+    public static long replay(Path path, RecordVisitor visitor) throws IOException {
+        OrderStatus[] statuses = OrderStatus.values();
+        try (FileChannel readChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            int size = (int) Files.size(path);
+            ByteBuffer data = readChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int end = scanValidEnd(data, 0, size);
+            int position = 0;
+            long records = 0;
+            while (position < end) {
+                int recordLength = data.getInt(position);
+                int bodyLength = data.getInt(position + 4);
+                ByteBuffer body = data.slice(position + HEADER_SIZE, bodyLength);
+                byte type = body.get();
+                switch (type) {
+                    case TYPE_CREATE -> visitor.onCreate(body.getLong(), getString(body), getString(body));
+                    case TYPE_STATUS -> visitor.onStatus(body.getLong(), statuses[body.get()]);
+                    case TYPE_PRODUCT -> visitor.onProduct(getString(body), body.getInt());
+                    case TYPE_SKIP -> {
+                    }
+                    default -> throw new IOException("未知的日志记录类型: " + type + "，位置: " + position);
+                }
+                position += recordLength;
+                records++;
+            }
+            return records;
+        }
+    }
+
+    public long getForceCount() {
+        return forces.sum();
+    }
+
+    public int getDurablePosition() {
+        return durablePosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closing = true;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        // 最后一次刷盘之后才放开同步提交的等待方，来不及持久化的记录由它们抛出异常
+        closed = true;
+        lock.lock();
+        try {
+            durable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        channel.close();
+        log.info("[订单日志] 已关闭 {}，共刷盘 {} 次", path, forces.sum());
+    }
+
+    /**
+     * 清除崩溃时残留的半条记录及其后的旧数据，避免新记录之后又接上旧记录被误读</br>
+     * 从第一条无效记录开始按记录长度 (未发布的记录按内容长度) 向后走，遇到全0的记录头即停止，</br>
+     * 不扫描整个映射区；遇到无法识别的记录头时清掉这个记录头后停止
+     */
+    private void clearTail(int end) {
+        int position = end;
+        while (position + HEADER_SIZE <= capacity) {
+            int recordLength = buffer.getInt(position);
+            int bodyLength = buffer.getInt(position + 4);
+            if (recordLength == 0 && bodyLength == 0) {
+                break;
+            }
+            int length = recordLength != 0 ? recordLength : recordLength(bodyLength);
+            if (length < HEADER_SIZE || (length & 7) != 0 || bodyLength < 0 || length > capacity - position) {
+                zero(position, HEADER_SIZE);
+                break;
+            }
+            zero(position, length);
+            position += length;
+        }
+    }
+
+    private void zero(int position, int length) {
+        for (int i = position; i < position + length; i++) {
+            buffer.put(i, (byte) 0);
+        }
+    }
+
+    // 从 start 开始扫描，返回最后一条完整且校验通过的记录之后的位置
+    static int scanValidEnd(ByteBuffer buffer, int start, int limit) {
+        int position = start;
+        CRC32C crc = new CRC32C();
+        while (position + HEADER_SIZE <= limit) {
+            int recordLength = buffer.getInt(position);
+            int bodyLength = buffer.getInt(position + 4);
+            if (recordLength <= 0 || bodyLength <= 0 || position + recordLength > limit
+                    || HEADER_SIZE + bodyLength > recordLength) {
+                break;
+            }
+            crc.reset();
+            crc.update(buffer.slice(position + HEADER_SIZE, bodyLength));
+            if ((int) crc.getValue() != buffer.getInt(position + 8)) {
+                break;
+            }
+            position += recordLength;
+        }
+        return position;
+    }
+
+    // ASCII字符直接写入，避免 getBytes 产生的临时数组
+    private static void putString(ByteBuffer body, String value) {
+        int length = value.length();
+        int lengthPosition = body.position();
+        body.putShort((short) 0);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                body.position(lengthPosition);
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                body.putShort((short) bytes.length).put(bytes);
+                return;
+            }
+            body.put((byte) c);
+        }
+        body.putShort(lengthPosition, (short) length);
+    }
+
+    static String getString(ByteBuffer body) {
+        int length = body.getShort();
+        byte[] bytes = new byte[length];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,15 @@
+package org.example.ticketsnatching;
+
+/**
+ * 订单ID作为哈希表的键 (订单表、二级索引、超时时间轮)</br>
+ * 雪花ID低32位里的节点号、分片号是常量，Long.hashCode 经 ConcurrentHashMap 扰动后只落到很少的桶里：</br>
+ * 单节点两百万订单只用到约6.5万个桶，每个桶三十多个订单、退化成红黑树，插入和查找慢一个数量级。</br>
+ * 这里用乘法散列把ID的所有位都混进哈希值，对象大小与 Long 相同。
+ */
+record OrderKey(long id) {
+    @Override
+    public int hashCode() {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
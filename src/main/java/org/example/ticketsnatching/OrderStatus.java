@@ -0,0 +1,28 @@
+package org.example.ticketsnatching;
+
+/**
+ * 订单状态机</br>
+ * 只有待支付订单可以流转，且只能流转一次：</br>
+ * AwaitingPayment → Paid / Cancelled / TimeoutCancelled
+ */
+public enum OrderStatus {
+    AWAITING_PAYMENT("AwaitingPayment"),
+    PAID("Paid"),
+    CANCELLED("Cancelled"),
+    TIMEOUT_CANCELLED("TimeoutCancelled");
+
+    private final String displayName;
+
+    OrderStatus(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public boolean canTransitionTo(OrderStatus target) {
+        return this == AWAITING_PAYMENT && target != AWAITING_PAYMENT;
+    }
+
+    @Override
+    public String toString() {
+        return displayName;
+    }
+}
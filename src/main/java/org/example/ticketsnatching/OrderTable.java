@@ -0,0 +1,55 @@
+package org.example.ticketsnatching;
+
+import java.util.function.Consumer;
+
+/**
+ * 订单表的存储方式，由 DatabaseManager 选择具体实现</br>
+ * {@link MapOrderTable}：每个订单一个 Order 对象 (原实现)</br>
+ * {@link CompactOrderTable}：基本类型并行数组，商品ID/用户ID字典化，状态一个字节</br>
+ * 订单ID是 {@link OrderIdGenerator} 生成的 long，按基本类型传入，不再在字符串和数字之间来回转换
+ */
+interface OrderTable {
+    default void insert(long orderId, String productId, String userId) {
+        insert(orderId, productId, userId, OrderStatus.AWAITING_PAYMENT);
+    }
+
+    void insert(long orderId, String productId, String userId, OrderStatus status);
+
+    // 订单不存在返回null
+    DatabaseManager.Order get(long orderId);
+
+    boolean compareAndSetStatus(long orderId, OrderStatus expected, OrderStatus target);
+
+    void forEach(Consumer<DatabaseManager.Order> action);
+
+    // 快照导出：遍历所有订单，商品、用户以快照字典编号给出，不为每个订单创建 Order 对象
+    void export(Exporter exporter);
+
+    // 快照加载：返回批量写入器，只在订单表为空时 (重启恢复开始时) 使用
+    Loader loader();
+
+    int size();
+
+    void clear();
+
+    /**
+     * 快照字典：商品、用户按第一次出现的顺序从0编号，每个字符串只导出一次，</br>
+     * 字典项总是在第一个引用它的订单之前回调
+     */
+    interface Exporter {
+        void product(String productId);
+
+        void user(String userId);
+
+        void order(long orderId, int productRef, int userRef, OrderStatus status);
+    }
+
+    // 按导出时的顺序回调字典项，订单按段批量写入，状态为 OrderStatus 的序号；快照中每个订单只出现一次，不做存在性检查
+    interface Loader {
+        void product(String productId);
+
+        void user(String userId);
+
+        void orders(long[] orderIds, int[] productRefs, int[] userRefs, byte[] statuses, int count);
+    }
+}
@@ -0,0 +1,244 @@
+package org.example.ticketsnatching;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * 订单支付超时的哈希时间轮</br>
+ * 轮盘有 wheelSize 个槽，指针每 tick 前进一格，订单按截止时间落到对应的槽，超过一圈的记录剩余圈数。</br>
+ * 1. 登记和取消都是 O(1)：登记只是放入待加入队列，取消是一次CAS把状态改为已取消，</br>
+ * 槽里的双向链表只由时间轮线程修改，不需要加锁；已取消的订单在下一个 tick 从链表摘除，不会等到过期</br>
+ * 2. 每个 tick 只处理当前一个槽和这段时间新增、取消的订单，与待超时订单的总数无关，百万级订单也没有额外开销</br>
+ * 3. 同一个 tick 到期的订单汇总成一批，在单独的线程上交给处理器，时间轮线程不会被超时处理拖慢
+ */
+@Slf4j
+public class OrderTimeoutWheel implements AutoCloseable {
+    private static final int ST_PENDING = 0;
+    private static final int ST_CANCELLED = 1;
+    private static final int ST_EXPIRED = 2;
+    // 每个 tick 最多从待加入队列转移的订单数，避免突发流量下一个 tick 拖太久
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Consumer<List<Long>> expiredHandler;
+    private final ExecutorService expiryExecutor;
+    private final Thread worker;
+    private final long startNanos;
+
+    // 订单ID -> 超时任务，取消时按订单ID查找
+    private final Map<OrderKey, Timeout> pending = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Timeout> additions = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Timeout> cancellations = new ConcurrentLinkedQueue<>();
+    // 指针已走过的 tick 数，只由时间轮线程修改
+    private long tick;
+    private volatile boolean running = true;
+
+    private static final class Timeout {
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        final long orderId;
+        final long deadlineNanos;
+        long remainingRounds;
+        Timeout prev;
+        Timeout next;
+        Bucket bucket;
+        volatile int state = ST_PENDING;
+
+        Timeout(long orderId, long deadlineNanos) {
+            this.orderId = orderId;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        boolean compareAndSetState(int expected, int target) {
+            return STATE.compareAndSet(this, expected, target);
+        }
+    }
+
+    // 一个槽：超时任务的双向链表，只由时间轮线程访问
+    private static final class Bucket {
+        Timeout head;
+        Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        Timeout remove(Timeout timeout) {
+            Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (next != null) {
+                next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            return next;
+        }
+    }
+
+    /**
+     * @param tickMillis     指针前进一格的时间，也是超时的精度
+     * @param wheelSize      槽数，向上取整为2的幂；tickMillis * wheelSize 覆盖常用的超时时间时，订单不需要转圈
+     * @param expiredHandler 处理一批到期的订单ID，在单独的线程上调用
+     */
+    public OrderTimeoutWheel(long tickMillis, int wheelSize, Consumer<List<Long>> expiredHandler) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int size = Integer.highestOneBit(Math.max(2, wheelSize) * 2 - 1);
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.expiredHandler = expiredHandler;
+        this.expiryExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "order-timeout-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.startNanos = System.nanoTime();
+        this.worker = new Thread(this::run, "order-timeout-wheel");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    // 登记订单在 delayMillis 毫秒后超时；同一订单重复登记时以最后一次为准
+    public void schedule(long orderId, long delayMillis) {
+        Timeout timeout = new Timeout(orderId, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis));
+        Timeout previous = pending.put(new OrderKey(orderId), timeout);
+        if (previous != null && previous.compareAndSetState(ST_PENDING, ST_CANCELLED)) {
+            cancellations.offer(previous);
+        }
+        additions.offer(timeout);
+    }
+
+    /**
+     * 取消订单的超时 (订单已支付或已取消)
+     *
+     * @return 订单仍在等待超时并被取消返回true；已经到期或不存在返回false
+     */
+    public boolean cancel(long orderId) {
+        Timeout timeout = pending.remove(new OrderKey(orderId));
+        if (timeout == null || !timeout.compareAndSetState(ST_PENDING, ST_CANCELLED)) {
+            return false;
+        }
+        cancellations.offer(timeout);
+        return true;
+    }
+
+    // 等待超时的订单数
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = startNanos + (tick + 1) * tickNanos;
+            long sleepNanos;
+            while ((sleepNanos = deadline - System.nanoTime()) > 0 && running) {
+                LockSupport.parkNanos(this, sleepNanos);
+            }
+            removeCancelled();
+            transferAdditions();
+            List<Long> expired = expire(wheel[(int) (tick & mask)]);
+            if (!expired.isEmpty()) {
+                expiryExecutor.execute(() -> handleExpired(expired));
+            }
+            tick++;
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancellations.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void transferAdditions() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Timeout timeout = additions.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.state != ST_PENDING) {
+                continue;
+            }
+            long calculated = (timeout.deadlineNanos - startNanos) / tickNanos;
+            timeout.remainingRounds = (calculated - tick) / wheel.length;
+            // 截止时间已过的订单放到当前槽，本 tick 立即到期
+            long ticks = Math.max(calculated, tick);
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    private List<Long> expire(Bucket bucket) {
+        List<Long> expired = new ArrayList<>();
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+                timeout = timeout.next;
+                continue;
+            }
+            Timeout next = bucket.remove(timeout);
+            if (timeout.compareAndSetState(ST_PENDING, ST_EXPIRED)) {
+                pending.remove(new OrderKey(timeout.orderId), timeout);
+                expired.add(timeout.orderId);
+            }
+            timeout = next;
+        }
+        return expired;
+    }
+
+    private void handleExpired(List<Long> orderIds) {
+        try {
+            expiredHandler.accept(orderIds);
+        } catch (RuntimeException e) {
+            log.error("[超时时间轮] 处理 {} 个到期订单失败", orderIds.size(), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(worker);
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        expiryExecutor.shutdown();
+        log.info("[超时时间轮] 已停止，未到期订单 {} 个", pending.size());
+    }
+}
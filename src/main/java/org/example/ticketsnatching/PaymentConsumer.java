@@ -1,12 +1,9 @@
 package org.example.ticketsnatching;
 
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.DeliverCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 
 import static org.example.ticketsnatching.Config.PAYMENT_QUEUE;
 
@@ -16,21 +13,37 @@ public class PaymentConsumer implements Runnable {
     @Override
     public void run() {
         try {
-            Channel channel = MQManager.getChannel();
             log.info("支付消费者启动，等待消息...");
-
-            DeliverCallback deliverCallback = (consumerTag, delivery) -> {
-                String orderId = new String(delivery.getBody(), StandardCharsets.UTF_8);
-                log.info("[支付消费者] 收到支付消息，订单ID: {}", orderId);
-                DatabaseManager.updateOrderStatusInDB(orderId, "Paid");
-                log.info("[支付消费者] 订单 {} 状态已更新为 'Paid'", orderId);
-                channel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
-                String notification = String.format("您的订单 %s 已支付成功。", orderId);
-                WebSocketManager.sendMessageToUser(order.userId, notification);
-            };
-            channel.basicConsume(PAYMENT_QUEUE, false, deliverCallback, consumerTag -> {});
+            MQManager.startConsumer(PAYMENT_QUEUE, Config.PAYMENT_CONSUMER_PREFETCH, Config.PAYMENT_CONSUMER_WORKERS,
+                    acknowledger -> (body, deliveryTag) -> handle(acknowledger, body, deliveryTag));
         } catch (IOException e) {
             log.error("支付消费者异常", e);
         }
     }
+
+    // 处理并确认，每个消费者的确认互不影响
+    private void handle(MessageBus.Acknowledger acknowledger, byte[] body, long deliveryTag) throws IOException {
+        long orderId;
+        try {
+            // 订单ID由用户提交，不是数字时按无法解析处理 (NumberFormatException 是 IllegalArgumentException)
+            orderId = Long.parseLong(MessageCodec.decodePayment(body).orderId());
+        } catch (IllegalArgumentException e) {
+            log.error("[支付消费者] 无法解析的支付消息，已丢弃", e);
+            acknowledger.ack(deliveryTag, false);
+            return;
+        }
+        log.info("[支付消费者] 收到支付消息，订单ID: {}", orderId);
+        DatabaseManager.Order order = DatabaseManager.getOrder(orderId);
+        if (order != null && DatabaseManager.transitionOrderStatus(orderId, OrderStatus.AWAITING_PAYMENT, OrderStatus.PAID)) {
+            log.info("[支付消费者] 订单 {} 状态已更新为 'Paid'", orderId);
+            // 已支付的订单立即从超时检查中移除
+            TimeoutManager.cancel(orderId);
+            String notification = String.format("您的订单 %s 已支付成功。", orderId);
+            WebSocketManager.sendOrderNotification(order.userId, String.valueOf(orderId), notification);
+        } else {
+            // 订单已超时或已取消，支付不再生效
+            log.warn("[支付消费者] 订单 {} 无法支付，当前状态: {}", orderId, order != null ? order.getStatus() : "不存在");
+        }
+        acknowledger.ack(deliveryTag, false);
+    }
 }
\ No newline at end of file
@@ -11,7 +11,7 @@ public class PaymentService {
     public static void payForOrder(String userId, String orderId) {
         log.info("[支付服务] 用户正在支付订单 {}", orderId);
         try {
-            MQManager.sendMessage(Config.ORDER_EXCHANGE, Config.PAYMENT_ROUTING_KEY, userId + "," + orderId);
+            MQManager.sendMessage(Config.ORDER_EXCHANGE, Config.PAYMENT_ROUTING_KEY, MessageCodec.encodePayment(userId, orderId));
         } catch (IOException e) {
             log.error("[支付服务] 发送支付消息失败", e);
         }
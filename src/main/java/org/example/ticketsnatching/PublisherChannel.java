@@ -0,0 +1,115 @@
+package org.example.ticketsnatching;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Channel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * 开启发送确认 (publisher confirms) 的发送Channel</br>
+ * 需要确认的消息发送前以发送序号为键登记到有序表中，broker异步回复 ack/nack：</br>
+ * 1. multiple=true 表示该序号及之前的消息全部确认，用 headMap 一次清除</br>
+ * 2. nack 的消息按补偿键 (商品 + 用户) 汇总数量，交给失败处理器批量补偿</br>
+ * 3. 超过确认超时仍未回复的消息由 {@link #expire(long, Map)} 取出，同样批量补偿</br>
+ * 发送方不调用阻塞的 waitForConfirms，一次发送只多一次有序表插入。
+ */
+@Slf4j
+class PublisherChannel {
+    private final Channel channel;
+    // 发送序号 -> 未确认的消息
+    private final ConcurrentSkipListMap<Long, Outstanding> outstanding = new ConcurrentSkipListMap<>();
+
+    private record Outstanding(MessageBus.CompensationKey compensationKey, long publishNanos) {
+    }
+
+    PublisherChannel(Channel channel, Consumer<Map<MessageBus.CompensationKey, Integer>> onFailure) throws IOException {
+        this.channel = channel;
+        channel.confirmSelect();
+        channel.addConfirmListener(
+                (deliveryTag, multiple) -> confirmed(deliveryTag, multiple, null),
+                (deliveryTag, multiple) -> confirmed(deliveryTag, multiple, onFailure));
+    }
+
+    /**
+     * 发送消息</br>
+     * compensationKey 不为null时登记等待确认，消息丢失时按这个键补偿；为null时不跟踪。</br>
+     * 调用方必须独占这个Channel (从池中借出)，否则发送序号会错位。
+     */
+    void publish(String exchange, String routingKey, BasicProperties properties, byte[] body,
+                 MessageBus.CompensationKey compensationKey) throws IOException {
+        long sequence = channel.getNextPublishSeqNo();
+        if (compensationKey != null) {
+            outstanding.put(sequence, new Outstanding(compensationKey, System.nanoTime()));
+        }
+        try {
+            channel.basicPublish(exchange, routingKey, properties, body);
+        } catch (IOException | RuntimeException e) {
+            // 同步发送失败由调用方补偿
+            outstanding.remove(sequence);
+            throw e;
+        }
+    }
+
+    private void confirmed(long deliveryTag, boolean multiple, Consumer<Map<MessageBus.CompensationKey, Integer>> onFailure) {
+        ConcurrentNavigableMap<Long, Outstanding> confirmed = multiple
+                ? outstanding.headMap(deliveryTag, true)
+                : outstanding.subMap(deliveryTag, true, deliveryTag, true);
+        if (onFailure == null) {
+            confirmed.clear();
+            return;
+        }
+        Map<MessageBus.CompensationKey, Integer> lost = new HashMap<>();
+        drain(confirmed, false, 0, lost);
+        if (!lost.isEmpty()) {
+            log.warn("[发送确认] Channel {} 收到nack，序号 {} (multiple={})，需补偿: {}",
+                    channel.getChannelNumber(), deliveryTag, multiple, lost);
+            onFailure.accept(lost);
+        }
+    }
+
+    // 取出发送时间早于 deadlineNanos 仍未确认的消息，按补偿键累加到 expired
+    void expire(long deadlineNanos, Map<MessageBus.CompensationKey, Integer> expired) {
+        drain(outstanding, true, deadlineNanos, expired);
+    }
+
+    // 序号越小发送越早，只取超时消息时遇到不早于截止时间的即停止；remove 成功才计数，与并发的ack、超时扫描不会重复补偿
+    private void drain(ConcurrentNavigableMap<Long, Outstanding> range, boolean onlyExpired, long deadlineNanos,
+                       Map<MessageBus.CompensationKey, Integer> counts) {
+        for (Map.Entry<Long, Outstanding> entry : range.entrySet()) {
+            Outstanding message = entry.getValue();
+            if (onlyExpired && message.publishNanos() - deadlineNanos >= 0) {
+                return;
+            }
+            if (outstanding.remove(entry.getKey(), message)) {
+                counts.merge(message.compensationKey(), 1, Integer::sum);
+            }
+        }
+    }
+
+    int outstandingCount() {
+        return outstanding.size();
+    }
+
+    boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    int getChannelNumber() {
+        return channel.getChannelNumber();
+    }
+
+    void close() throws IOException {
+        try {
+            channel.close();
+        } catch (TimeoutException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package org.example.ticketsnatching;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 基于 RabbitMQ 的消息总线</br>
+ * 1. 消费和发送使用两个连接：发送被broker流控阻塞时不影响消费</br>
+ * 2. 消费者运行时：每个队列可以有多个工作线程，每个工作线程独占一个Channel并设置 basicQos(prefetch)。</br>
+ * 同一个Channel上的消息是串行投递的，多个Channel才能让同一个队列的消息被多核并行处理；</br>
+ * prefetch 限制每个Channel未确认的消息数，消息不会全部堆到一个消费者的内存里</br>
+ * 3. 发送方Channel池：Channel不能被多个线程同时用于发送，发送时从池中借出一个，用完归还</br>
+ * 4. 发送确认：池中的Channel都开启 publisher confirms (见 {@link PublisherChannel})，</br>
+ * 带补偿键发送的消息被nack或超过 {@link Config#MQ_CONFIRM_TIMEOUT_MS} 未确认时，按补偿键汇总后交给失败处理器批量补偿
+ */
+@Slf4j
+public class RabbitMessageBus implements MessageBus {
+    private final Connection consumerConnection;
+    private final Connection publisherConnection;
+    private final ExecutorService consumerExecutor;
+    private final ScheduledExecutorService confirmExecutor;
+    private final BlockingQueue<PublisherChannel> publisherChannels;
+    // 并发发送数的许可，与Channel数相同：拿到许可后池中一定有空闲Channel
+    private final Semaphore publishPermits;
+    // 所有发送Channel (含已关闭但还有未确认消息的)，供超时扫描使用
+    private final List<PublisherChannel> trackedChannels = new CopyOnWriteArrayList<>();
+    private final List<Channel> consumerChannels = new CopyOnWriteArrayList<>();
+    // 过期时间 -> 消息属性，同一过期时间的消息共用
+    private final Map<Long, BasicProperties> expirationProperties = new ConcurrentHashMap<>();
+    private volatile Consumer<Map<CompensationKey, Integer>> publishFailureHandler =
+            lost -> log.error("[发送确认] 消息丢失且未设置补偿处理器: {}", lost);
+
+    public RabbitMessageBus(String host, int port, int consumerThreads, int publisherChannelCount)
+            throws IOException, TimeoutException {
+        ConnectionFactory factory = new ConnectionFactory();
+        factory.setHost(host);
+        factory.setPort(port);
+        factory.setUsername("guest");
+        factory.setPassword("guest");
+        // 消费回调在这个线程池中执行，大小与所有消费者的工作线程数之和一致；虚拟线程模式下每次回调一个虚拟线程
+        consumerExecutor = SeckillExecutors.newConsumerExecutor("mq-consumer-", consumerThreads);
+        consumerConnection = factory.newConnection(consumerExecutor);
+        publisherConnection = factory.newConnection();
+
+        confirmExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "mq-confirm-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        publisherChannels = new ArrayBlockingQueue<>(publisherChannelCount);
+        publishPermits = new Semaphore(publisherChannelCount);
+        for (int i = 0; i < publisherChannelCount; i++) {
+            publisherChannels.add(newPublisherChannel());
+        }
+        confirmExecutor.scheduleWithFixedDelay(this::expireUnconfirmed,
+                Config.MQ_CONFIRM_SWEEP_INTERVAL_MS, Config.MQ_CONFIRM_SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        log.info("RabbitMQ 连接成功，发送Channel {} 个，消费线程 {} 个", publisherChannelCount, consumerThreads);
+    }
+
+    @Override
+    public void declareExchange(String exchange) throws IOException {
+        try (Channel channel = publisherConnection.createChannel()) {
+            channel.exchangeDeclare(exchange, "direct", true);
+        } catch (TimeoutException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void declareQueue(String queue, String deadLetterExchange, String deadLetterRoutingKey) throws IOException {
+        Map<String, Object> args = null;
+        if (deadLetterExchange != null) {
+            args = new HashMap<>();
+            args.put("x-dead-letter-exchange", deadLetterExchange);
+            args.put("x-dead-letter-routing-key", deadLetterRoutingKey);
+        }
+        try (Channel channel = publisherConnection.createChannel()) {
+            channel.queueDeclare(queue, true, false, false, args);
+        } catch (TimeoutException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void bindQueue(String queue, String exchange, String routingKey) throws IOException {
+        try (Channel channel = publisherConnection.createChannel()) {
+            channel.queueBind(queue, exchange, routingKey);
+        } catch (TimeoutException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * 创建 workers 个Channel，每个设置 basicQos(prefetch) 后各自订阅队列，</br>
+     * 回调收到的投递标签属于该Channel，确认也在该Channel上执行
+     */
+    @Override
+    public void subscribe(String queue, int prefetch, int workers,
+                          Function<Acknowledger, MessageHandler> handlerFactory) throws IOException {
+        for (int i = 0; i < workers; i++) {
+            Channel channel = consumerConnection.createChannel();
+            channel.basicQos(prefetch);
+            MessageHandler handler = handlerFactory.apply(channel::basicAck);
+            channel.basicConsume(queue, false,
+                    (consumerTag, delivery) -> handler.handle(delivery.getBody(), delivery.getEnvelope().getDeliveryTag()),
+                    consumerTag -> {});
+            consumerChannels.add(channel);
+        }
+        log.info("队列 {} 启动 {} 个消费Channel，prefetch={}", queue, workers, prefetch);
+    }
+
+    @Override
+    public void publish(String exchange, String routingKey, byte[] body, CompensationKey compensationKey) throws IOException {
+        PublisherChannel channel = borrowChannel();
+        try {
+            channel.publish(exchange, routingKey, null, body, compensationKey);
+        } finally {
+            returnChannel(channel);
+        }
+    }
+
+    @Override
+    public void publishDelayed(String exchange, String routingKey, byte[] body, long delayMillis) throws IOException {
+        PublisherChannel channel = borrowChannel();
+        try {
+            channel.publish(exchange, routingKey, expiration(delayMillis), body, null);
+        } finally {
+            returnChannel(channel);
+        }
+    }
+
+    // 整批只借还一次Channel
+    @Override
+    public <T> void publishDelayed(String exchange, String routingKey, List<T> items, Function<T, byte[]> encoder,
+                                   long delayMillis) throws IOException {
+        BasicProperties properties = expiration(delayMillis);
+        PublisherChannel channel = borrowChannel();
+        try {
+            for (T item : items) {
+                channel.publish(exchange, routingKey, properties, encoder.apply(item), null);
+            }
+        } finally {
+            returnChannel(channel);
+        }
+    }
+
+    private BasicProperties expiration(long delayMillis) {
+        return expirationProperties.computeIfAbsent(delayMillis,
+                d -> new BasicProperties.Builder().expiration(String.valueOf(d)).build());
+    }
+
+    @Override
+    public void setPublishFailureHandler(Consumer<Map<CompensationKey, Integer>> handler) {
+        publishFailureHandler = handler;
+    }
+
+    private PublisherChannel borrowChannel() throws IOException {
+        try {
+            publishPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待发送Channel时被中断", e);
+        }
+        PublisherChannel channel = publisherChannels.poll();
+        if (channel.isOpen()) {
+            return channel;
+        }
+        // 归还时重建失败留下的已关闭占位：借出前再重建一次，仍然失败就放回占位并抛出，不把关闭的Channel交给调用方
+        try {
+            return newPublisherChannel();
+        } catch (IOException | RuntimeException e) {
+            publisherChannels.offer(channel);
+            publishPermits.release();
+            throw new IOException("发送Channel已关闭且重新创建失败", e);
+        }
+    }
+
+    private void returnChannel(PublisherChannel channel) {
+        try {
+            recycleChannel(channel);
+        } finally {
+            publishPermits.release();
+        }
+    }
+
+    // 发送出错后Channel会被broker关闭，归还时换一个新的，保持池的大小不变
+    private void recycleChannel(PublisherChannel channel) {
+        if (channel.isOpen()) {
+            publisherChannels.offer(channel);
+            return;
+        }
+        log.warn("发送Channel {} 已关闭，重新创建", channel.getChannelNumber());
+        try {
+            publisherChannels.offer(newPublisherChannel());
+        } catch (IOException | RuntimeException e) {
+            // 放回已关闭的Channel占位，下次借出时再尝试重建
+            log.error("重新创建发送Channel失败", e);
+            publisherChannels.offer(channel);
+        }
+    }
+
+    private PublisherChannel newPublisherChannel() throws IOException {
+        PublisherChannel channel = new PublisherChannel(publisherConnection.createChannel(),
+                lost -> confirmExecutor.execute(() -> compensate(lost)));
+        trackedChannels.add(channel);
+        return channel;
+    }
+
+    // 扫描所有发送Channel中超时未确认的消息，汇总后一次补偿；已关闭且没有未确认消息的Channel不再跟踪
+    private void expireUnconfirmed() {
+        try {
+            long deadline = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(Config.MQ_CONFIRM_TIMEOUT_MS);
+            Map<CompensationKey, Integer> expired = new HashMap<>();
+            for (PublisherChannel channel : trackedChannels) {
+                channel.expire(deadline, expired);
+                if (!channel.isOpen() && channel.outstandingCount() == 0) {
+                    trackedChannels.remove(channel);
+                }
+            }
+            if (!expired.isEmpty()) {
+                log.warn("[发送确认] {} ms 内未收到确认，需补偿: {}", Config.MQ_CONFIRM_TIMEOUT_MS, expired);
+                compensate(expired);
+            }
+        } catch (RuntimeException e) {
+            log.error("[发送确认] 超时扫描失败", e);
+        }
+    }
+
+    private void compensate(Map<CompensationKey, Integer> lost) {
+        try {
+            publishFailureHandler.accept(lost);
+        } catch (RuntimeException e) {
+            log.error("[发送确认] 补偿失败: {}", lost, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            for (Channel channel : consumerChannels) {
+                if (channel.isOpen()) {
+                    channel.close();
+                }
+            }
+        } catch (TimeoutException e) {
+            throw new IOException(e);
+        }
+        consumerChannels.clear();
+        PublisherChannel channel;
+        while ((channel = publisherChannels.poll()) != null) {
+            if (channel.isOpen()) {
+                channel.close();
+            }
+        }
+        consumerConnection.close();
+        publisherConnection.close();
+        consumerExecutor.shutdown();
+        confirmExecutor.shutdownNow();
+    }
+}
@@ -1,91 +1,119 @@
 package org.example.ticketsnatching;
 
-import com.google.common.hash.BloomFilter;
-import com.google.common.hash.Funnels;
 import lombok.extern.slf4j.Slf4j;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
 
-import java.nio.charset.Charset;
 import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
 
+/**
+ * Redis连接管理</br>
+ * 所有Redis访问都经过 {@link #execute(Function)}：先拿信号量许可再借连接，许可数等于连接池大小，</br>
+ * 等待发生在信号量上 (虚拟线程等待时让出载体线程)，而不是阻塞在连接池里。
+ */
 @Slf4j
 public class RedisManager {
     private static JedisPool jedisPool;
-    private static BloomFilter<String> bloomFilter;
+    private static final Semaphore permits = new Semaphore(Config.REDIS_MAX_CONCURRENCY);
 
     public static void init() {
         // 初始化Jedis连接池
         JedisPoolConfig poolConfig = new JedisPoolConfig();
-        poolConfig.setMaxTotal(128);
-        poolConfig.setMaxIdle(128);
+        poolConfig.setMaxTotal(Config.REDIS_MAX_CONCURRENCY);
+        poolConfig.setMaxIdle(Config.REDIS_MAX_CONCURRENCY);
         poolConfig.setMinIdle(16);
-        poolConfig.setTestOnBorrow(true);
-        poolConfig.setTestOnReturn(true);
+        // 借出/归还时不再PING，连接有效性交给空闲检测，避免每次请求多两次往返
+        poolConfig.setTestOnBorrow(false);
+        poolConfig.setTestOnReturn(false);
         poolConfig.setTestWhileIdle(true);
         poolConfig.setMinEvictableIdleTimeMillis(Duration.ofSeconds(60).toMillis());
         poolConfig.setTimeBetweenEvictionRunsMillis(Duration.ofSeconds(30).toMillis());
         poolConfig.setNumTestsPerEvictionRun(3);
         poolConfig.setBlockWhenExhausted(true);
 
-        jedisPool = new JedisPool(poolConfig, Config.REDIS_HOST, Config.REDIS_PORT, 2000, Config.REDIS_PASSWORD);
+        // 连接创建时即选好库，后续请求不再单独发送 SELECT
+        jedisPool = new JedisPool(poolConfig, Config.REDIS_HOST, Config.REDIS_PORT, 2000, Config.REDIS_PASSWORD, Config.REDIS_DATABASE);
 
         // 测试连接
-        try (Jedis jedis = jedisPool.getResource()) {
-            jedis.select(Config.REDIS_DATABASE);
-            log.info("Redis 连接成功: {}", jedis.ping());
-        }
+        String pong = execute(Jedis::ping);
+        log.info("Redis 连接成功: {}", pong);
 
-        // 初始化布隆过滤器 (预计1000个商品，期望误判率0.01)
-        bloomFilter = BloomFilter.create(Funnels.stringFunnel(Charset.defaultCharset()), 1000, 0.01);
+        // 预加载库存扣减脚本，之后通过 EVALSHA 调用
+        RedisStockClient.loadScripts();
     }
 
     // 设置商品初始库存
     public static void setStock(String productId, int stock) {
         String key = Config.PRODUCT_STOCK_KEY_PREFIX + productId;
-        try (Jedis jedis = jedisPool.getResource()) {
-            jedis.select(Config.REDIS_DATABASE);
-            String result = jedis.set(key, String.valueOf(stock));
-            log.info("设置商品 {} 库存为 {}，结果: {}", productId, stock, result);
+        String result = execute(jedis -> jedis.set(key, String.valueOf(stock)));
+        log.info("设置商品 {} 库存为 {}，结果: {}", productId, stock, result);
+    }
+
+    // Lua脚本实现原子预扣减库存并检查限购 (EVALSHA + 并发请求合并，见 RedisStockClient)
+    public static StockStore.DeductResult preDeductStock(String userId, String productId) {
+        return RedisStockClient.preDeduct(userId, productId);
+    }
+
+    // 原子租借库存段：最多扣减 count 个，返回实际扣减数量 (库存不会被扣成负数)
+    public static long leaseStock(String productId, int count) {
+        return RedisStockClient.deductUpTo(productId, count);
+    }
+
+    // 归还未使用的库存段
+    public static void returnStock(String productId, long count) {
+        if (count <= 0) {
+            return;
         }
+        execute(jedis -> jedis.incrBy(Config.PRODUCT_STOCK_KEY_PREFIX + productId, count));
     }
 
-    // Lua脚本实现原子预扣减库存
-    public static boolean preDeductStock(String productId) {
-        String script = "local stock = redis.call('get', KEYS[1]) " +
-                        "if tonumber(stock) > 0 then " +
-                        "    redis.call('decr', KEYS[1]) " +
-                        "    return 1 " +
-                        "else " +
-                        "    return 0 " +
-                        "end";
-        try (Jedis jedis = jedisPool.getResource()) {
-            jedis.select(Config.REDIS_DATABASE);
-            Object result = jedis.eval(script, 1, Config.PRODUCT_STOCK_KEY_PREFIX + productId);
-            return Long.valueOf(1).equals(result);
+    // 归还这些用户的库存并从购买用户集合中移除，两条命令放在一个管道里
+    public static void returnStock(String productId, Collection<String> userIds) {
+        if (userIds.isEmpty()) {
+            return;
         }
+        execute(jedis -> {
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.incrBy(Config.PRODUCT_STOCK_KEY_PREFIX + productId, userIds.size());
+            pipeline.srem(Config.PRODUCT_BUYERS_KEY_PREFIX + productId, userIds.toArray(String[]::new));
+            pipeline.sync();
+            return null;
+        });
     }
 
-    // --- 布隆过滤器相关 ---
-    public static void addProductToBloomFilter(String productId) {
-        bloomFilter.put(productId);
+    // 清空商品的购买用户集合
+    public static void clearBuyers(String productId) {
+        execute(jedis -> jedis.del(Config.PRODUCT_BUYERS_KEY_PREFIX + productId));
     }
 
-    public static boolean mightContainInBloomFilter(String productId) {
-        return bloomFilter.mightContain(productId);
+    // 在信号量许可内借一个连接执行操作
+    static <T> T execute(Function<Jedis, T> action) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待Redis许可时被中断", e);
+        }
+        try (Jedis jedis = jedisPool.getResource()) {
+            return action.apply(jedis);
+        } finally {
+            permits.release();
+        }
     }
 
     public static void close() {
+        RedisStockClient.logStats();
         if (jedisPool != null && !jedisPool.isClosed()) {
             jedisPool.close();
         }
     }
 
     public static void increaseStockInDB(String productId) {
-        try (Jedis jedis = jedisPool.getResource()) {
-            jedis.select(Config.REDIS_DATABASE);
-            jedis.incr(Config.PRODUCT_STOCK_KEY_PREFIX + productId);
-        }
+        execute(jedis -> jedis.incr(Config.PRODUCT_STOCK_KEY_PREFIX + productId));
     }
 }
\ No newline at end of file
@@ -0,0 +1,240 @@
+package org.example.ticketsnatching;
+
+import lombok.extern.slf4j.Slf4j;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Redis库存客户端</br>
+ * 1. 扣减脚本只在启动时 SCRIPT LOAD 一次，之后用 EVALSHA 按SHA调用，不再每次发送脚本源码</br>
+ * 2. 预扣减请求合并：并发请求先放入队列，由抢到合并权的线程一次取出，按商品分组，</br>
+ * 每个商品只调用一次“最多扣减N个”的脚本，所有商品的调用放在同一个管道里一次往返完成。</br>
+ * 脚本返回实际扣减数量 g，同商品的前 g 个请求成功、其余失败，每个调用方仍然拿到自己的结果。</br>
+ * 突发流量下，每个请求的平均Redis往返次数远小于1。</br>
+ * 3. 限购 ({@link Config#ONE_ORDER_PER_USER})：改用按用户扣减的脚本，参数是这批请求的用户ID，</br>
+ * 脚本对每个用户 SADD 到商品的购买用户集合，已在集合中的判为重复、不扣减，扣减和记录在同一次脚本调用中原子完成。
+ */
+@Slf4j
+public class RedisStockClient {
+    // 最多扣减 ARGV[1] 个库存，返回实际扣减数量
+    private static final String DEDUCT_SCRIPT =
+            "local stock = tonumber(redis.call('get', KEYS[1]) or '0') " +
+            "if stock <= 0 then " +
+            "    return 0 " +
+            "end " +
+            "local grant = math.min(stock, tonumber(ARGV[1])) " +
+            "redis.call('decrby', KEYS[1], grant) " +
+            "return grant";
+
+    // 按用户扣减：KEYS[1] 库存，KEYS[2] 购买用户集合，ARGV 为用户ID；逐个返回 1 成功、0 库存不足、2 重复购买
+    private static final String DEDUCT_PER_USER_SCRIPT =
+            "local stock = tonumber(redis.call('get', KEYS[1]) or '0') " +
+            "local granted = 0 " +
+            "local result = {} " +
+            "for i = 1, #ARGV do " +
+            "    if granted >= stock then " +
+            "        result[i] = 0 " +
+            "    elseif redis.call('sadd', KEYS[2], ARGV[i]) == 0 then " +
+            "        result[i] = 2 " +
+            "    else " +
+            "        granted = granted + 1 " +
+            "        result[i] = 1 " +
+            "    end " +
+            "end " +
+            "if granted > 0 then " +
+            "    redis.call('decrby', KEYS[1], granted) " +
+            "end " +
+            "return result";
+
+    private static volatile String deductSha;
+    private static volatile String deductPerUserSha;
+
+    private static final ConcurrentLinkedQueue<PendingDeduct> pending = new ConcurrentLinkedQueue<>();
+    private static final AtomicBoolean flushing = new AtomicBoolean();
+
+    // 统计：请求数与实际Redis往返次数
+    private static final LongAdder requests = new LongAdder();
+    private static final LongAdder roundTrips = new LongAdder();
+
+    private static class PendingDeduct {
+        final String userId;
+        final String productId;
+        final CompletableFuture<StockStore.DeductResult> result = new CompletableFuture<>();
+
+        PendingDeduct(String userId, String productId) {
+            this.userId = userId;
+            this.productId = productId;
+        }
+    }
+
+    public static void loadScripts() {
+        RedisManager.execute(RedisStockClient::loadScripts);
+        log.info("库存扣减脚本已加载，SHA: {} / {}", deductSha, deductPerUserSha);
+    }
+
+    private static Void loadScripts(Jedis jedis) {
+        deductSha = jedis.scriptLoad(DEDUCT_SCRIPT);
+        deductPerUserSha = jedis.scriptLoad(DEDUCT_PER_USER_SCRIPT);
+        return null;
+    }
+
+    // 预扣减一个库存，与同时到达的其他请求合并执行
+    public static StockStore.DeductResult preDeduct(String userId, String productId) {
+        requests.increment();
+        PendingDeduct request = new PendingDeduct(userId, productId);
+        pending.offer(request);
+        while (!request.result.isDone()) {
+            if (flushing.compareAndSet(false, true)) {
+                try {
+                    flushBatch();
+                } finally {
+                    flushing.set(false);
+                }
+            } else {
+                try {
+                    request.result.get(Config.REDIS_COALESCE_WAIT_MICROS, TimeUnit.MICROSECONDS);
+                } catch (TimeoutException ignored) {
+                    // 合并线程还没处理到这个请求，继续尝试自己合并
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("等待预扣减结果时被中断", e);
+                } catch (ExecutionException e) {
+                    break;
+                }
+            }
+        }
+        try {
+            return request.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待预扣减结果时被中断", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : new IllegalStateException(e.getCause());
+        }
+    }
+
+    // 单独调用一次，最多扣减 count 个库存 (库存段租借使用)
+    public static long deductUpTo(String productId, int count) {
+        roundTrips.increment();
+        return RedisManager.execute(jedis -> toLong(evalDeduct(jedis, productId, count)));
+    }
+
+    // 取出队列中的请求，按商品分组后在一个管道中批量执行
+    private static void flushBatch() {
+        Map<String, List<PendingDeduct>> byProduct = new LinkedHashMap<>();
+        PendingDeduct request;
+        int drained = 0;
+        while (drained < Config.REDIS_COALESCE_MAX_BATCH && (request = pending.poll()) != null) {
+            byProduct.computeIfAbsent(request.productId, k -> new ArrayList<>()).add(request);
+            drained++;
+        }
+        if (drained == 0) {
+            return;
+        }
+        try {
+            List<Object> replies = pipelineDeduct(byProduct);
+            int i = 0;
+            for (List<PendingDeduct> requestsOfProduct : byProduct.values()) {
+                complete(requestsOfProduct, replies.get(i++));
+            }
+        } catch (RuntimeException e) {
+            log.error("批量预扣减库存失败，涉及 {} 个请求", drained, e);
+            byProduct.values().forEach(list -> list.forEach(r -> r.result.completeExceptionally(e)));
+        }
+    }
+
+    // 数量脚本返回扣减数量，前 g 个请求成功；按用户脚本逐个返回结果
+    private static void complete(List<PendingDeduct> requestsOfProduct, Object reply) {
+        if (reply instanceof List<?> results) {
+            for (int j = 0; j < requestsOfProduct.size(); j++) {
+                requestsOfProduct.get(j).result.complete(toDeductResult((Long) results.get(j)));
+            }
+            return;
+        }
+        long grant = toLong(reply);
+        for (int j = 0; j < requestsOfProduct.size(); j++) {
+            requestsOfProduct.get(j).result.complete(j < grant ? StockStore.DeductResult.GRANTED : StockStore.DeductResult.SOLD_OUT);
+        }
+    }
+
+    private static StockStore.DeductResult toDeductResult(long code) {
+        if (code == 1) {
+            return StockStore.DeductResult.GRANTED;
+        }
+        return code == 2 ? StockStore.DeductResult.DUPLICATE : StockStore.DeductResult.SOLD_OUT;
+    }
+
+    private static List<Object> pipelineDeduct(Map<String, List<PendingDeduct>> byProduct) {
+        return RedisManager.execute(jedis -> {
+            try {
+                return pipelineDeduct(jedis, byProduct);
+            } catch (JedisNoScriptException e) {
+                // Redis重启或执行过 SCRIPT FLUSH，重新加载后重试一次
+                log.warn("Redis中扣减脚本已丢失，重新加载");
+                loadScripts(jedis);
+                return pipelineDeduct(jedis, byProduct);
+            }
+        });
+    }
+
+    private static List<Object> pipelineDeduct(Jedis jedis, Map<String, List<PendingDeduct>> byProduct) {
+        roundTrips.increment();
+        Pipeline pipeline = jedis.pipelined();
+        List<Response<Object>> responses = new ArrayList<>(byProduct.size());
+        byProduct.forEach((productId, list) -> {
+            String stockKey = Config.PRODUCT_STOCK_KEY_PREFIX + productId;
+            if (Config.ONE_ORDER_PER_USER) {
+                List<String> userIds = new ArrayList<>(list.size());
+                for (PendingDeduct request : list) {
+                    userIds.add(request.userId);
+                }
+                responses.add(pipeline.evalsha(deductPerUserSha,
+                        List.of(stockKey, Config.PRODUCT_BUYERS_KEY_PREFIX + productId), userIds));
+            } else {
+                responses.add(pipeline.evalsha(deductSha, 1, stockKey, String.valueOf(list.size())));
+            }
+        });
+        pipeline.sync();
+        List<Object> replies = new ArrayList<>(responses.size());
+        for (Response<Object> response : responses) {
+            replies.add(response.get());
+        }
+        return replies;
+    }
+
+    private static Object evalDeduct(Jedis jedis, String productId, int count) {
+        String key = Config.PRODUCT_STOCK_KEY_PREFIX + productId;
+        try {
+            return jedis.evalsha(deductSha, 1, key, String.valueOf(count));
+        } catch (JedisNoScriptException e) {
+            log.warn("Redis中扣减脚本已丢失，重新加载");
+            loadScripts(jedis);
+            return jedis.evalsha(deductSha, 1, key, String.valueOf(count));
+        }
+    }
+
+    private static long toLong(Object result) {
+        return result == null ? 0 : (Long) result;
+    }
+
+    public static void logStats() {
+        long r = requests.sum();
+        long t = roundTrips.sum();
+        log.info("[库存客户端] 预扣减请求 {} 次，Redis往返 {} 次，平均每请求 {} 次", r, t,
+                r == 0 ? 0 : String.format("%.4f", (double) t / r));
+    }
+}
@@ -0,0 +1,116 @@
+package org.example.ticketsnatching;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 基于Redis的库存存储，封装 RedisManager 的Lua预扣减路径，开启库存段模式时走 StockSegmentManager</br>
+ * 限购：Lua预扣减时在脚本中原子检查购买用户集合，已购买的用户记入本地缓存 ({@link BuyerCache})，重复请求不再访问Redis；</br>
+ * 库存段模式下库存在本地分配，由进程内的 {@link BuyerRegistry} 检查 (只对本节点有效)。
+ */
+public class RedisStockStore implements StockStore {
+    private final SoldOutIndex soldOutIndex = new SoldOutIndex();
+    private final BuyerCache buyerCache = new BuyerCache(Config.BUYER_CACHE_MAX_ENTRIES, Config.BUYER_CACHE_TTL_MS);
+    private final BuyerRegistry segmentBuyers = new BuyerRegistry();
+
+    @Override
+    public void setStock(String productId, int stock) {
+        RedisManager.setStock(productId, stock);
+    }
+
+    @Override
+    public DeductResult tryDeduct(String userId, String productId) {
+        if (Config.STOCK_SEGMENT_ENABLED) {
+            return tryAcquireSegment(userId, productId);
+        }
+        if (Config.ONE_ORDER_PER_USER && buyerCache.contains(productId, userId)) {
+            return DeductResult.DUPLICATE;
+        }
+        DeductResult result = RedisManager.preDeductStock(userId, productId);
+        if (Config.ONE_ORDER_PER_USER && result != DeductResult.SOLD_OUT) {
+            buyerCache.add(productId, userId);
+        }
+        return result;
+    }
+
+    private DeductResult tryAcquireSegment(String userId, String productId) {
+        if (!Config.ONE_ORDER_PER_USER) {
+            return StockSegmentManager.tryAcquire(productId) ? DeductResult.GRANTED : DeductResult.SOLD_OUT;
+        }
+        if (!segmentBuyers.tryAdd(productId, userId)) {
+            return DeductResult.DUPLICATE;
+        }
+        if (StockSegmentManager.tryAcquire(productId)) {
+            return DeductResult.GRANTED;
+        }
+        segmentBuyers.remove(productId, userId);
+        return DeductResult.SOLD_OUT;
+    }
+
+    @Override
+    public boolean hasPurchased(String userId, String productId) {
+        if (!Config.ONE_ORDER_PER_USER) {
+            return false;
+        }
+        return Config.STOCK_SEGMENT_ENABLED
+                ? segmentBuyers.contains(productId, userId)
+                : buyerCache.contains(productId, userId);
+    }
+
+    @Override
+    public void cancelDeduct(String userId, String productId) {
+        if (Config.STOCK_SEGMENT_ENABLED) {
+            StockSegmentManager.release(productId);
+            segmentBuyers.remove(productId, userId);
+        } else if (Config.ONE_ORDER_PER_USER) {
+            buyerCache.removeAll(productId, List.of(userId));
+            RedisManager.returnStock(productId, List.of(userId));
+        } else {
+            RedisManager.increaseStockInDB(productId);
+        }
+        soldOutIndex.reopen(productId);
+    }
+
+    @Override
+    public void returnStock(String productId, int count) {
+        RedisManager.returnStock(productId, count);
+        soldOutIndex.reopen(productId);
+    }
+
+    @Override
+    public void returnStock(String productId, Collection<String> buyers) {
+        if (!Config.ONE_ORDER_PER_USER) {
+            returnStock(productId, buyers.size());
+            return;
+        }
+        // 库存段模式下购买记录在本地，库存直接归还Redis (与订单取消/超时归还的方式一致)
+        if (Config.STOCK_SEGMENT_ENABLED) {
+            segmentBuyers.removeAll(productId, buyers);
+            RedisManager.returnStock(productId, buyers.size());
+        } else {
+            buyerCache.removeAll(productId, buyers);
+            RedisManager.returnStock(productId, buyers);
+        }
+        soldOutIndex.reopen(productId);
+    }
+
+    @Override
+    public void clearBuyers(String productId) {
+        buyerCache.clear(productId);
+        segmentBuyers.clear(productId);
+        RedisManager.clearBuyers(productId);
+    }
+
+    @Override
+    public SoldOutIndex soldOutIndex() {
+        return soldOutIndex;
+    }
+
+    @Override
+    public void close() {
+        if (Config.STOCK_SEGMENT_ENABLED) {
+            StockSegmentManager.returnAll();
+        }
+        buyerCache.close();
+    }
+}
@@ -0,0 +1,163 @@
+package org.example.ticketsnatching;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 进程内消息总线：每个队列一个 {@link MessageRingBuffer}，按 交换机 + 路由键 的绑定把消息路由到队列</br>
+ * 1. 发送：消息拷贝进目标队列预分配的槽位后立即返回，没有网络往返和序列化以外的开销；</br>
+ * 消息进入队列即不会丢失，所以不需要发送确认和补偿</br>
+ * 2. 延迟消息：队列声明了死信交换机且没有消费者时 (与RabbitMQ的TTL + 死信队列等价)，</br>
+ * 到期后再路由到死信交换机</br>
+ * 3. 队列有界，消费跟不上时发送方等待 (背压)，而不是像broker一样无限堆积</br>
+ * 只适用于单机部署和压测：进程退出时队列中的消息会丢失；消费回调抛出异常的消息不会重新投递，记录日志后丢弃。
+ */
+@Slf4j
+public class RingBufferMessageBus implements MessageBus {
+    private final int queueCapacity;
+    private final Map<String, Queue> queues = new ConcurrentHashMap<>();
+    // 交换机 -> 路由键 -> 绑定的队列 (两级查找，发送时不用拼接字符串)
+    private final Map<String, Map<String, List<Queue>>> bindings = new ConcurrentHashMap<>();
+    private final List<MessageRingBuffer.Worker> workers = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService delayExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "bus-delay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static class Queue {
+        final MessageRingBuffer buffer;
+        final String deadLetterExchange;
+        final String deadLetterRoutingKey;
+        volatile boolean hasConsumers;
+
+        Queue(MessageRingBuffer buffer, String deadLetterExchange, String deadLetterRoutingKey) {
+            this.buffer = buffer;
+            this.deadLetterExchange = deadLetterExchange;
+            this.deadLetterRoutingKey = deadLetterRoutingKey;
+        }
+    }
+
+    public RingBufferMessageBus(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+        log.info("进程内消息总线初始化成功，每个队列容量 {}", queueCapacity);
+    }
+
+    @Override
+    public void declareExchange(String exchange) {
+        // 直连交换机只是路由表里的一个名字，不需要单独创建
+    }
+
+    @Override
+    public void declareQueue(String queue, String deadLetterExchange, String deadLetterRoutingKey) {
+        queues.computeIfAbsent(queue, name ->
+                new Queue(new MessageRingBuffer(name, queueCapacity), deadLetterExchange, deadLetterRoutingKey));
+    }
+
+    @Override
+    public void bindQueue(String queue, String exchange, String routingKey) throws IOException {
+        Queue target = queue(queue);
+        bindings.computeIfAbsent(exchange, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(routingKey, k -> new CopyOnWriteArrayList<>())
+                .add(target);
+    }
+
+    @Override
+    public void publish(String exchange, String routingKey, byte[] body, CompensationKey compensationKey) {
+        List<Queue> targets = route(exchange, routingKey);
+        if (targets == null) {
+            // 与broker一致：没有绑定队列的消息直接丢弃
+            log.warn("[消息总线] 消息没有匹配的队列，已丢弃: {} / {}", exchange, routingKey);
+            return;
+        }
+        for (Queue target : targets) {
+            target.buffer.publish(body);
+        }
+    }
+
+    @Override
+    public void publishDelayed(String exchange, String routingKey, byte[] body, long delayMillis) {
+        List<Queue> targets = route(exchange, routingKey);
+        if (targets == null) {
+            log.warn("[消息总线] 消息没有匹配的队列，已丢弃: {} / {}", exchange, routingKey);
+            return;
+        }
+        for (Queue target : targets) {
+            if (target.deadLetterExchange == null || target.hasConsumers) {
+                target.buffer.publish(body);
+            } else {
+                // 调用方的缓冲区会被复用，到期前先拷贝一份
+                byte[] copy = body.clone();
+                delayExecutor.schedule(() -> publish(target.deadLetterExchange, target.deadLetterRoutingKey, copy, null),
+                        delayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    @Override
+    public <T> void publishDelayed(String exchange, String routingKey, List<T> items, Function<T, byte[]> encoder,
+                                   long delayMillis) {
+        for (T item : items) {
+            publishDelayed(exchange, routingKey, encoder.apply(item), delayMillis);
+        }
+    }
+
+    @Override
+    public void subscribe(String queue, int prefetch, int workerCount,
+                          Function<Acknowledger, MessageHandler> handlerFactory) throws IOException {
+        Queue target = queue(queue);
+        for (int i = 0; i < workerCount; i++) {
+            // 先创建消费者取得确认接口，再创建回调，最后启动线程
+            MessageHandler[] handler = new MessageHandler[1];
+            MessageRingBuffer.Worker worker = target.buffer.newWorker("bus-" + queue + "-" + i, prefetch,
+                    (body, deliveryTag) -> handler[0].handle(body, deliveryTag));
+            handler[0] = handlerFactory.apply(worker);
+            workers.add(worker);
+            worker.start();
+        }
+        target.hasConsumers = true;
+        log.info("队列 {} 启动 {} 个进程内消费者，prefetch={}", queue, workerCount, prefetch);
+    }
+
+    private Queue queue(String name) throws IOException {
+        Queue queue = queues.get(name);
+        if (queue == null) {
+            throw new IOException("队列未声明: " + name);
+        }
+        return queue;
+    }
+
+    private List<Queue> route(String exchange, String routingKey) {
+        Map<String, List<Queue>> byRoutingKey = bindings.get(exchange);
+        return byRoutingKey == null ? null : byRoutingKey.get(routingKey);
+    }
+
+    @Override
+    public void close() {
+        delayExecutor.shutdownNow();
+        workers.forEach(MessageRingBuffer.Worker::stop);
+        for (MessageRingBuffer.Worker worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        queues.forEach((name, queue) -> {
+            long backlog = queue.buffer.backlog();
+            if (backlog > 0) {
+                log.warn("[消息总线] 队列 {} 关闭时还有 {} 条消息未消费", name, backlog);
+            }
+        });
+    }
+}
@@ -0,0 +1,78 @@
+package org.example.ticketsnatching;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 预先编码好的售卖状态广播帧</br>
+ * 文本内容为 "sale-status:{事件}:{商品ID}"，在创建时一次性编码成完整的WebSocket文本帧 (服务端发出的帧不加掩码，</br>
+ * 所以同一个帧可以原样发给所有连接)。广播时每个连接只拿到一个共享底层字节的只读视图，不按连接重复编码和拷贝。</br>
+ * 同一 (事件, 商品) 的帧会被缓存，商品反复售罄、补货时不会重复编码。
+ */
+public final class SaleStatusFrame {
+    public enum Event {
+        // 开售
+        OPENING,
+        // 售罄，客户端应停止重试
+        SOLD_OUT,
+        // 有库存归还，重新开放
+        RESTOCKED
+    }
+
+    public static final String PREFIX = "sale-status:";
+    private static final byte FIN_TEXT = (byte) 0x81;
+    private static final Map<String, SaleStatusFrame> cache = new ConcurrentHashMap<>();
+
+    private final Event event;
+    private final String productId;
+    private final String text;
+    private final ByteBuffer frame;
+
+    private SaleStatusFrame(Event event, String productId) {
+        this.event = event;
+        this.productId = productId;
+        this.text = PREFIX + event + ":" + productId;
+        this.frame = encodeTextFrame(text.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
+
+    public static SaleStatusFrame of(Event event, String productId) {
+        return cache.computeIfAbsent(event.name() + ":" + productId, k -> new SaleStatusFrame(event, productId));
+    }
+
+    public Event event() {
+        return event;
+    }
+
+    public String productId() {
+        return productId;
+    }
+
+    // 帧的文本内容 (无法直接写入编码帧的连接退回到按文本发送)
+    public String text() {
+        return text;
+    }
+
+    // 共享同一份字节的独立视图，各连接的写入位置互不影响
+    ByteBuffer frame() {
+        return frame.duplicate();
+    }
+
+    // 完整的不分片文本帧：[FIN|opcode][长度][内容]，长度按 7位 / 16位 / 64位 三种格式编码
+    private static ByteBuffer encodeTextFrame(byte[] payload) {
+        int length = payload.length;
+        int headerSize = length < 126 ? 2 : length <= 0xFFFF ? 4 : 10;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(headerSize + length);
+        buffer.put(FIN_TEXT);
+        if (length < 126) {
+            buffer.put((byte) length);
+        } else if (length <= 0xFFFF) {
+            buffer.put((byte) 126).putShort((short) length);
+        } else {
+            buffer.put((byte) 127).putLong(length);
+        }
+        buffer.put(payload).flip();
+        return buffer;
+    }
+}
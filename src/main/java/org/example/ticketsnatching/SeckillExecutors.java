@@ -0,0 +1,58 @@
+package org.example.ticketsnatching;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 秒杀请求和消费回调的执行方式，由 {@link Config#EXECUTOR_MODE} 选择</br>
+ * PLATFORM：固定大小的平台线程池，并发上限就是线程数，请求阻塞在Redis/MQ的I/O上时线程也被占住</br>
+ * VIRTUAL：每个任务一个虚拟线程，阻塞时只挂起虚拟线程、让出载体线程，并发不再受线程数限制；</br>
+ * 有限的资源 (Redis连接、MQ发送Channel) 改由信号量限流 (见 {@link RedisManager}、{@link RabbitMessageBus})。</br>
+ * 虚拟线程在 synchronized 块内阻塞会钉住载体线程 (JDK 21)，所以请求路径上包住I/O的锁都使用 ReentrantLock。
+ */
+public class SeckillExecutors {
+    public enum Mode {
+        PLATFORM,
+        VIRTUAL
+    }
+
+    public static boolean usesVirtualThreads() {
+        return Config.EXECUTOR_MODE == Mode.VIRTUAL;
+    }
+
+    // 执行秒杀请求；PLATFORM 模式下线程数为 platformThreads
+    public static ExecutorService newRequestExecutor(int platformThreads) {
+        return newRequestExecutor(Config.EXECUTOR_MODE, platformThreads);
+    }
+
+    // 按指定的方式执行秒杀请求 (压测时对比两种方式)
+    public static ExecutorService newRequestExecutor(Mode mode, int platformThreads) {
+        return newExecutor(mode, "seckill-request-", platformThreads);
+    }
+
+    // 执行消费回调；PLATFORM 模式下线程数为 platformThreads
+    public static ExecutorService newConsumerExecutor(String namePrefix, int platformThreads) {
+        return newExecutor(Config.EXECUTOR_MODE, namePrefix, platformThreads);
+    }
+
+    // 长期运行的消费线程 (未启动)，VIRTUAL 模式下为虚拟线程
+    public static Thread newConsumerThread(String name, Runnable task) {
+        if (usesVirtualThreads()) {
+            return Thread.ofVirtual().name(name).unstarted(task);
+        }
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static ExecutorService newExecutor(Mode mode, String namePrefix, int platformThreads) {
+        if (mode == Mode.VIRTUAL) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(namePrefix, 1).factory());
+        }
+        AtomicInteger threadIndex = new AtomicInteger();
+        ThreadFactory factory = r -> new Thread(r, namePrefix + threadIndex.incrementAndGet());
+        return Executors.newFixedThreadPool(platformThreads, factory);
+    }
+}
@@ -0,0 +1,138 @@
+package org.example.ticketsnatching;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 秒杀流水线各阶段的延迟和吞吐统计，以JMX MBean发布</br>
+ * 调用方在阶段开始时取 {@link #start()}，结束时 {@link #record(Stage, long)}；记录不加锁、不分配对象，可以在生产环境常开。</br>
+ * 每个阶段注册为 org.example.ticketsnatching:type=SeckillStage,name=阶段名，统计线程每 {@link Config#METRICS_WINDOW_SECONDS} 秒</br>
+ * 结束一个窗口，计算窗口内的每秒速率和 p50/p99/p999 (见 {@link StageMetrics})。</br>
+ * {@link Config#METRICS_ENABLED} 为 false 时记录直接返回。
+ */
+@Slf4j
+public class SeckillMetrics {
+    public enum Stage {
+        // 售罄标记检查
+        SOLD_OUT_CHECK,
+        // 准入控制 (用户和全局令牌桶)
+        ADMISSION,
+        // 库存预扣减 (Redis Lua脚本或进程内计数器)
+        STOCK_DEDUCT,
+        // 下单消息发送
+        MQ_PUBLISH,
+        // 订单消费者建单 (批量建单时一批记一次耗时，计数按订单数)
+        ORDER_DB_WRITE,
+        // 超时订单处理 (时间轮一批记一次耗时，计数按订单数)
+        TIMEOUT_HANDLING,
+        // WebSocket推送 (推送线程写出一条通知)
+        WEBSOCKET_PUSH
+    }
+
+    private static final String OBJECT_NAME_PREFIX = "org.example.ticketsnatching:type=SeckillStage,name=";
+    private static final StageMetrics[] stages = new StageMetrics[Stage.values().length];
+    private static ScheduledExecutorService roller;
+    private static long lastRollNanos;
+
+    static {
+        for (Stage stage : Stage.values()) {
+            stages[stage.ordinal()] = new StageMetrics(stage);
+        }
+    }
+
+    // 阶段开始时间，未开启统计时返回0
+    public static long start() {
+        return Config.METRICS_ENABLED ? System.nanoTime() : 0L;
+    }
+
+    public static void record(Stage stage, long startNanos) {
+        record(stage, startNanos, 1);
+    }
+
+    // 一批 events 个操作共用一次耗时
+    public static void record(Stage stage, long startNanos, int events) {
+        if (Config.METRICS_ENABLED) {
+            stages[stage.ordinal()].record(System.nanoTime() - startNanos, events);
+        }
+    }
+
+    public static void recordError(Stage stage) {
+        if (Config.METRICS_ENABLED) {
+            stages[stage.ordinal()].recordError();
+        }
+    }
+
+    public static StageMetrics get(Stage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    // 注册MBean并启动统计线程
+    public static synchronized void init() {
+        if (!Config.METRICS_ENABLED || roller != null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (StageMetrics metrics : stages) {
+            try {
+                ObjectName name = new ObjectName(OBJECT_NAME_PREFIX + metrics.getStage());
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(metrics, name);
+                }
+            } catch (JMException e) {
+                log.error("[统计] 注册MBean失败: {}", metrics.getStage(), e);
+            }
+        }
+        lastRollNanos = System.nanoTime();
+        roller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "seckill-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        roller.scheduleAtFixedRate(SeckillMetrics::roll,
+                Config.METRICS_WINDOW_SECONDS, Config.METRICS_WINDOW_SECONDS, TimeUnit.SECONDS);
+        log.info("[统计] 阶段统计已发布到JMX，窗口 {} 秒", Config.METRICS_WINDOW_SECONDS);
+    }
+
+    // 按实际经过的时间计算速率 (调度延迟、关闭时不足一个窗口)
+    private static synchronized void roll() {
+        try {
+            long now = System.nanoTime();
+            double windowSeconds = Math.max(1, now - lastRollNanos) / 1e9;
+            lastRollNanos = now;
+            for (StageMetrics metrics : stages) {
+                metrics.roll(windowSeconds);
+            }
+        } catch (RuntimeException e) {
+            log.error("[统计] 统计窗口切换失败", e);
+        }
+    }
+
+    // 停止统计线程并注销MBean，最后一个窗口的结果打印到日志
+    public static synchronized void close() {
+        if (roller == null) {
+            return;
+        }
+        roller.shutdownNow();
+        roller = null;
+        roll();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (StageMetrics metrics : stages) {
+            log.info("[统计] {}", metrics);
+            try {
+                ObjectName name = new ObjectName(OBJECT_NAME_PREFIX + metrics.getStage());
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+            } catch (JMException e) {
+                log.error("[统计] 注销MBean失败: {}", metrics.getStage(), e);
+            }
+        }
+    }
+}
@@ -3,40 +3,141 @@ package org.example.ticketsnatching;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 @Slf4j
 public class SeckillService {
-    public static void placeOrder(String userId, String productId) {
+    private final StockStore stockStore;
+    // 准入控制，未开启时为null
+    private final AdmissionController admissionController;
+
+    // 一次秒杀请求的结果
+    public enum Outcome {
+        // 预扣减成功，下单消息已发出
+        ACCEPTED,
+        // 售罄标记快速失败，没有访问库存
+        SOLD_OUT,
+        // 用户已经抢到过该商品 (限购)
+        DUPLICATE,
+        // 准入控制拒绝 (用户或全局限流)，没有访问库存
+        THROTTLED,
+        // 预扣减时库存不足
+        REJECTED,
+        // 预扣减成功但发送消息失败，已归还库存
+        PUBLISH_FAILED,
+        // 其他异常
+        ERROR
+    }
+
+    public SeckillService(StockStore stockStore) {
+        this(stockStore, Config.ADMISSION_ENABLED ? AdmissionController.fromConfig() : null);
+    }
+
+    public SeckillService(StockStore stockStore, AdmissionController admissionController) {
+        this.stockStore = stockStore;
+        this.admissionController = admissionController;
+    }
+
+    public Outcome placeOrder(String userId, String productId) {
         try {
             log.info("[用户 {}] 开始处理商品 {} 的秒杀请求", userId, productId);
-            // 1. 布隆过滤器快速失败：检查商品是否已明确售罄
-            boolean mightContain = RedisManager.mightContainInBloomFilter(productId);
-            if (mightContain) {
-                log.warn("[用户 {}] 请求商品 {} 失败：布隆过滤器判定已售罄 (快速失败)", userId, productId);
-                return;
+            // 1. 售罄标记快速失败：检查商品是否已明确售罄
+            long checkStart = SeckillMetrics.start();
+            SoldOutIndex soldOutIndex = stockStore.soldOutIndex();
+            long soldOutState = soldOutIndex.observe(productId);
+            SeckillMetrics.record(SeckillMetrics.Stage.SOLD_OUT_CHECK, checkStart);
+            if (SoldOutIndex.isSoldOut(soldOutState)) {
+                log.warn("[用户 {}] 请求商品 {} 失败：商品已售罄 (快速失败)", userId, productId);
+                return Outcome.SOLD_OUT;
             }
 
-            // 2. Redis原子预扣减库存
-            boolean success = RedisManager.preDeductStock(productId);
-            log.info("[用户 {}] 预扣减商品 {} 结果: {}", userId, productId, success);
-            if (success) {
-                // 3. 预扣减成功，发送消息到MQ进行后续处理
+            // 2. 限购：本地已知用户抢到过该商品时直接拒绝，不消耗准入令牌，也不访问Redis
+            if (stockStore.hasPurchased(userId, productId)) {
+                log.warn("[用户 {}] 请求商品 {} 失败：已经抢到过该商品", userId, productId);
+                return Outcome.DUPLICATE;
+            }
+
+            // 3. 准入控制：超过用户或全局速率的请求在访问库存之前拒绝
+            if (admissionController != null) {
+                long admissionStart = SeckillMetrics.start();
+                AdmissionController.Decision decision = admissionController.tryAdmit(userId);
+                SeckillMetrics.record(SeckillMetrics.Stage.ADMISSION, admissionStart);
+                if (decision != AdmissionController.Decision.ADMITTED) {
+                    log.warn("[用户 {}] 请求商品 {} 被限流: {}", userId, productId, decision);
+                    return Outcome.THROTTLED;
+                }
+            }
+
+            // 4. 原子预扣减库存并记录购买用户 (Redis Lua脚本或进程内计数器)
+            long deductStart = SeckillMetrics.start();
+            StockStore.DeductResult result;
+            try {
+                result = stockStore.tryDeduct(userId, productId);
+            } catch (RuntimeException e) {
+                SeckillMetrics.recordError(SeckillMetrics.Stage.STOCK_DEDUCT);
+                throw e;
+            }
+            SeckillMetrics.record(SeckillMetrics.Stage.STOCK_DEDUCT, deductStart);
+            log.info("[用户 {}] 预扣减商品 {} 结果: {}", userId, productId, result);
+            if (result == StockStore.DeductResult.DUPLICATE) {
+                log.warn("[用户 {}] 请求商品 {} 失败：已经抢到过该商品", userId, productId);
+                return Outcome.DUPLICATE;
+            }
+            if (result == StockStore.DeductResult.GRANTED) {
+                // 5. 预扣减成功，发送消息到MQ进行后续处理
                 log.info("[用户 {}] 预扣减商品 {} 库存成功，发送消息到MQ...", userId, productId);
+                long publishStart = SeckillMetrics.start();
                 try {
-                    String message = userId + "," + productId;
-                    MQManager.sendMessage(Config.ORDER_EXCHANGE, Config.ORDER_ROUTING_KEY, message);
-                } catch (IOException e) {
+                    // 以 商品 + 用户 为补偿键：消息被broker拒绝或确认超时时归还库存并清除购买记录 (见 compensateLostOrders)
+                    MQManager.sendMessage(Config.ORDER_EXCHANGE, Config.ORDER_ROUTING_KEY,
+                            MessageCodec.encodeOrderRequest(userId, productId),
+                            new MessageBus.CompensationKey(productId, userId));
+                    SeckillMetrics.record(SeckillMetrics.Stage.MQ_PUBLISH, publishStart);
+                    return Outcome.ACCEPTED;
+                } catch (IOException | RuntimeException e) {
+                    // 发送Channel已关闭等运行时异常同样没有登记待确认消息 (见 PublisherChannel#publish)，由这里补偿
+                    SeckillMetrics.recordError(SeckillMetrics.Stage.MQ_PUBLISH);
                     log.error("发送订单消息失败", e);
-                    // 注意：这里需要补偿机制，将Redis库存加回去
-                    RedisManager.increaseStockInDB(productId);
+                    // 补偿：将预扣减的库存加回去
+                    stockStore.cancelDeduct(userId, productId);
+                    return Outcome.PUBLISH_FAILED;
                 }
             } else {
-                // 4. 预扣减失败，说明库存已空，将商品ID加入布隆过滤器
-                log.info("[用户 {}] 请求商品 {} 失败：Redis库存不足", userId, productId);
-                RedisManager.addProductToBloomFilter(productId);
+                // 6. 预扣减失败，说明库存已空，标记商品售罄 (期间有库存归还则不标记)
+                log.info("[用户 {}] 请求商品 {} 失败：库存不足", userId, productId);
+                soldOutIndex.markSoldOut(productId, soldOutState);
+                return Outcome.REJECTED;
             }
         } catch (Exception e) {
             log.error("[用户 {}] 处理商品 {} 的秒杀请求时发生异常", userId, productId, e);
+            return Outcome.ERROR;
+        }
+    }
+
+    /**
+     * 下单消息丢失 (broker nack 或确认超时) 的批量补偿：补偿键为 商品 + 用户，</br>
+     * 按商品汇总后每个商品归还一次库存并重新开放，同时清除这些用户的购买记录，用户可以重新抢购，不会一直被判为重复购买
+     */
+    public void compensateLostOrders(Map<MessageBus.CompensationKey, Integer> lostByKey) {
+        Map<String, List<String>> lostBuyers = new HashMap<>();
+        lostByKey.forEach((key, count) -> {
+            // 不限购时同一用户可能丢失多条，按条数归还
+            lostBuyers.computeIfAbsent(key.productId(), k -> new ArrayList<>())
+                    .addAll(Collections.nCopies(count, key.userId()));
+        });
+        lostBuyers.forEach((productId, userIds) -> {
+            stockStore.returnStock(productId, userIds);
+            log.warn("[补偿] 商品 {} 有 {} 条下单消息未被broker确认，已归还库存", productId, userIds.size());
+        });
+    }
+
+    public void close() {
+        if (admissionController != null) {
+            admissionController.close();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,353 @@
+package org.example.ticketsnatching;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * 订单库快照与重启恢复</br>
+ * 预写日志按代 (generation) 分文件：orders-{代}.journal；快照文件 snapshot-{代}.snap 包含第 {代} 之前所有日志的内容。</br>
+ * </br>
+ * 拍快照 (不停止消费者)：</br>
+ * 1. 先把预写日志滚动到新的一代 g，之后的修改都写入新文件，再把旧日志封口，等待旧日志中已预留的记录发布完</br>
+ * 2. 再遍历商品表和订单表写出快照。数据库总是在修改内存之后才发布日志记录，所以封口之后旧日志里的修改都已生效，一定会被快照看到；</br>
+ * 遍历期间发生的修改可能进快照也可能不进，但都在第 g 代日志里，重放时会再应用一次</br>
+ * 3. 快照写完并 fsync 后原子重命名生效，然后删除旧快照和第 g 代之前的日志</br>
+ * 两次快照之间日志写满时同样滚动到新一代 (不拍快照、不删除文件)，恢复时按代依次重放</br>
+ * </br>
+ * 重启恢复：加载最新快照，只重放快照之后那几代日志。重放是幂等的：已存在的订单跳过，状态只能从待支付流转一次；</br>
+ * 库存不单独记录，恢复后按 初始库存 - 有效订单数 重新计算。</br>
+ * 快照为紧凑二进制格式：商品ID、用户ID字典化，订单是定长记录，按段批量写入订单表和二级索引，</br>
+ * 加载时不为每个订单解析字符串，恢复耗时与快照中的订单数成正比 (见 benchmark.RecoveryBenchmark)。
+ */
+@Slf4j
+public class SnapshotManager {
+    private static final int MAGIC = 0x534B534E; // "SKSN"
+    private static final int VERSION = 3;
+    // 订单定长记录：订单ID、商品编号、用户编号、状态
+    private static final int ORDER_RECORD_SIZE = Long.BYTES + Integer.BYTES + Integer.BYTES + 1;
+    private static final int ORDERS_PER_BLOCK = 4096;
+    private static final Pattern JOURNAL_FILE = Pattern.compile("orders-(\\d+)\\.journal");
+    private static final Pattern SNAPSHOT_FILE = Pattern.compile("snapshot-(\\d+)\\.snap");
+
+    private static Path dir;
+    private static long generation;
+    private static ScheduledExecutorService scheduler;
+
+    // 启动时调用：加载最新快照、重放之后的日志，然后打开最新一代日志继续追加
+    public static synchronized void recover() throws IOException {
+        dir = Path.of(Config.JOURNAL_DIR);
+        Files.createDirectories(dir);
+        long start = System.nanoTime();
+
+        long snapshotGeneration = latestGeneration(SNAPSHOT_FILE);
+        long orders = 0;
+        if (snapshotGeneration >= 0) {
+            orders = loadSnapshot(snapshotFile(snapshotGeneration));
+        }
+        long replayed = 0;
+        List<Long> journals = generations(JOURNAL_FILE);
+        for (long g : journals) {
+            if (g >= snapshotGeneration) {
+                replayed += OrderJournal.replay(journalFile(g), replayVisitor());
+            }
+        }
+        DatabaseManager.rebuildStock();
+
+        generation = journals.isEmpty() ? Math.max(0, snapshotGeneration) : Math.max(journals.get(journals.size() - 1), snapshotGeneration);
+        DatabaseManager.swapJournal(openJournal(generation));
+        log.info("[快照] 恢复完成：快照第 {} 代 {} 个订单，重放日志 {} 条，耗时 {} ms",
+                snapshotGeneration, orders, replayed, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    public static void startPeriodicSnapshots() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "order-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                takeSnapshot();
+            } catch (Exception e) {
+                log.error("[快照] 定期快照失败", e);
+            }
+        }, Config.SNAPSHOT_INTERVAL_SECONDS, Config.SNAPSHOT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public static synchronized void takeSnapshot() throws IOException {
+        long start = System.nanoTime();
+        // 1. 滚动日志，之后的修改都写入新一代日志
+        long snapshotGeneration = generation + 1;
+        OrderJournal previous = DatabaseManager.swapJournal(openJournal(snapshotGeneration));
+        generation = snapshotGeneration;
+        if (previous != null) {
+            previous.seal(Config.JOURNAL_SEAL_TIMEOUT_MS);
+        }
+
+        // 2. 遍历写出快照到临时文件
+        Path tmp = dir.resolve("snapshot-" + snapshotGeneration + ".snap.tmp");
+        long[] orders = new long[1];
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(snapshotGeneration);
+            // 订单数只是预估值，用于加载时预分配订单表
+            out.writeLong(DatabaseManager.orderCount());
+            writeSnapshot(out, orders);
+        }
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        // 3. 原子生效，再清理旧文件
+        Files.move(tmp, snapshotFile(snapshotGeneration), StandardCopyOption.ATOMIC_MOVE);
+        if (previous != null) {
+            previous.close();
+        }
+        for (long g : generations(JOURNAL_FILE)) {
+            if (g < snapshotGeneration) {
+                Files.deleteIfExists(journalFile(g));
+            }
+        }
+        for (long g : generations(SNAPSHOT_FILE)) {
+            if (g < snapshotGeneration) {
+                Files.deleteIfExists(snapshotFile(g));
+            }
+        }
+        log.info("[快照] 第 {} 代快照完成，{} 个订单，耗时 {} ms",
+                snapshotGeneration, orders[0], TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * 当前日志写满时滚动到新一代日志，返回滚动后的当前日志</br>
+     * 多个线程同时发现写满时只滚动一次，其余线程直接拿到新日志；旧日志封口后关闭，保留到下次快照时删除
+     */
+    static synchronized OrderJournal rollJournal(OrderJournal full) throws IOException {
+        OrderJournal current = DatabaseManager.currentJournal();
+        if (current != full) {
+            return current;
+        }
+        long next = generation + 1;
+        OrderJournal journal = openJournal(next);
+        DatabaseManager.swapJournal(journal);
+        generation = next;
+        full.seal(Config.JOURNAL_SEAL_TIMEOUT_MS);
+        full.close();
+        log.info("[快照] 订单日志已满，滚动到第 {} 代", next);
+        return journal;
+    }
+
+    public static synchronized void close() throws IOException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        OrderJournal current = DatabaseManager.swapJournal(null);
+        if (current != null) {
+            current.seal(Config.JOURNAL_SEAL_TIMEOUT_MS);
+            current.close();
+        }
+    }
+
+    /**
+     * 快照格式：商品 [1][商品ID][初始库存]...，之后是订单：</br>
+     * 字典项 [3][商品ID] / [4][用户ID]，按第一次出现的顺序从0编号；</br>
+     * 订单段 [2][int 条数][定长记录...]，每条 [long 订单ID][int 商品编号][int 用户编号][byte 状态] 共 {@value #ORDER_RECORD_SIZE} 字节，</br>
+     * 字典项总是写在第一个引用它的订单段之前；结束 [0]
+     */
+    private static void writeSnapshot(DataOutputStream out, long[] orders) throws IOException {
+        try {
+            DatabaseManager.forEachInitialStock((productId, stock) -> {
+                try {
+                    out.writeByte(1);
+                    out.writeUTF(productId);
+                    out.writeInt(stock);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            OrderWriter writer = new OrderWriter(out);
+            DatabaseManager.exportOrders(writer);
+            writer.flush();
+            orders[0] = writer.orders;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.writeByte(0);
+    }
+
+    // 订单攒满一段后整段写出，字典项立即写出，所以总在引用它的订单段之前
+    private static final class OrderWriter implements OrderTable.Exporter {
+        private final DataOutputStream out;
+        private final ByteBuffer block = ByteBuffer.allocate(ORDERS_PER_BLOCK * ORDER_RECORD_SIZE);
+        private long orders;
+
+        OrderWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void product(String productId) {
+            writeEntry(3, productId);
+        }
+
+        @Override
+        public void user(String userId) {
+            writeEntry(4, userId);
+        }
+
+        @Override
+        public void order(long orderId, int productRef, int userRef, OrderStatus status) {
+            block.putLong(orderId).putInt(productRef).putInt(userRef).put((byte) status.ordinal());
+            orders++;
+            if (!block.hasRemaining()) {
+                flush();
+            }
+        }
+
+        private void writeEntry(int type, String value) {
+            try {
+                out.writeByte(type);
+                out.writeUTF(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void flush() {
+            if (block.position() == 0) {
+                return;
+            }
+            try {
+                out.writeByte(2);
+                out.writeInt(block.position() / ORDER_RECORD_SIZE);
+                out.write(block.array(), 0, block.position());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            block.clear();
+        }
+    }
+
+    private static long loadSnapshot(Path file) throws IOException {
+        long orders = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("无法识别的快照文件: " + file);
+            }
+            in.readLong();
+            DatabaseManager.reserveOrderCapacity((int) Math.min(Integer.MAX_VALUE, in.readLong()));
+            OrderTable.Loader loader = DatabaseManager.orderLoader();
+            int productCount = 0;
+            int userCount = 0;
+            byte[] bytes = new byte[ORDERS_PER_BLOCK * ORDER_RECORD_SIZE];
+            ByteBuffer block = ByteBuffer.wrap(bytes);
+            long[] orderIds = new long[ORDERS_PER_BLOCK];
+            int[] productRefs = new int[ORDERS_PER_BLOCK];
+            int[] userRefs = new int[ORDERS_PER_BLOCK];
+            byte[] statuses = new byte[ORDERS_PER_BLOCK];
+            int statusCount = OrderStatus.values().length;
+            byte type;
+            while ((type = in.readByte()) != 0) {
+                switch (type) {
+                    case 1 -> DatabaseManager.restoreProduct(in.readUTF(), in.readInt());
+                    case 3 -> {
+                        loader.product(in.readUTF());
+                        productCount++;
+                    }
+                    case 4 -> {
+                        loader.user(in.readUTF());
+                        userCount++;
+                    }
+                    case 2 -> {
+                        int count = in.readInt();
+                        if (count <= 0 || count > ORDERS_PER_BLOCK) {
+                            throw new IOException("快照文件已损坏: " + file);
+                        }
+                        in.readFully(bytes, 0, count * ORDER_RECORD_SIZE);
+                        block.clear();
+                        for (int i = 0; i < count; i++) {
+                            orderIds[i] = block.getLong();
+                            productRefs[i] = block.getInt();
+                            userRefs[i] = block.getInt();
+                            statuses[i] = block.get();
+                            if (productRefs[i] < 0 || productRefs[i] >= productCount || userRefs[i] < 0 || userRefs[i] >= userCount
+                                    || statuses[i] < 0 || statuses[i] >= statusCount) {
+                                throw new IOException("快照文件已损坏: " + file);
+                            }
+                        }
+                        loader.orders(orderIds, productRefs, userRefs, statuses, count);
+                        orders += count;
+                    }
+                    default -> throw new IOException("快照文件已损坏: " + file);
+                }
+            }
+        }
+        return orders;
+    }
+
+    private static OrderJournal.RecordVisitor replayVisitor() {
+        return new OrderJournal.RecordVisitor() {
+            @Override
+            public void onCreate(long orderId, String productId, String userId) {
+                DatabaseManager.restoreOrder(orderId, productId, userId, OrderStatus.AWAITING_PAYMENT);
+            }
+
+            @Override
+            public void onStatus(long orderId, OrderStatus status) {
+                DatabaseManager.restoreStatus(orderId, status);
+            }
+
+            @Override
+            public void onProduct(String productId, int initialStock) {
+                DatabaseManager.restoreProduct(productId, initialStock);
+            }
+        };
+    }
+
+    private static OrderJournal openJournal(long g) throws IOException {
+        return new OrderJournal(journalFile(g), Config.JOURNAL_FILE_SIZE, Config.JOURNAL_COMMIT_BATCH,
+                Config.JOURNAL_FLUSH_INTERVAL_MICROS, Config.JOURNAL_SYNC_COMMIT);
+    }
+
+    private static Path journalFile(long g) {
+        return dir.resolve("orders-" + g + ".journal");
+    }
+
+    private static Path snapshotFile(long g) {
+        return dir.resolve("snapshot-" + g + ".snap");
+    }
+
+    private static long latestGeneration(Pattern pattern) throws IOException {
+        List<Long> all = generations(pattern);
+        return all.isEmpty() ? -1 : all.get(all.size() - 1);
+    }
+
+    // 目录中某类文件的所有代号，升序
+    private static List<Long> generations(Pattern pattern) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(p -> pattern.matcher(p.getFileName().toString()))
+                    .filter(Matcher::matches)
+                    .map(m -> Long.parseLong(m.group(1)))
+                    .sorted()
+                    .toList();
+        }
+    }
+}
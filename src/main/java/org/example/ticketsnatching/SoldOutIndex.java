@@ -0,0 +1,85 @@
+package org.example.ticketsnatching;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 精确的商品售罄标记，替代布隆过滤器</br>
+ * 布隆过滤器有误判 (商品多了以后会把有库存的商品判为售罄)，而且不能删除元素，库存归还后商品再也卖不出去。</br>
+ * 这里每个商品一个状态字：高63位是版本号 (epoch)，最低位是售罄位。</br>
+ * 1. 查询：一次哈希查找加一次volatile读，不分配对象</br>
+ * 2. 标记售罄：只有版本号与请求开始时观察到的一致才能置位 (CAS)，</br>
+ * 这样库存归还之前发出的“库存不足”结果不会把已经重新开放的商品再次关掉</br>
+ * 3. 重新开放：版本号加一并清除售罄位</br>
+ * 商品真正从在售变为售罄、从售罄变为重新开放时通知监听器 (例如向所有在线用户广播)，重复标记不会重复通知。
+ */
+public class SoldOutIndex {
+    private static final long SOLD_OUT_BIT = 1L;
+
+    private final Map<String, AtomicLong> markers = new ConcurrentHashMap<>();
+    private volatile Listener listener;
+
+    // 售卖状态变化的监听器，在标记售罄/重新开放的线程上调用，不应阻塞
+    public interface Listener {
+        void onSoldOut(String productId);
+
+        void onReopened(String productId);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // 返回商品当前的状态字，未出现过的商品为0 (版本0，未售罄)
+    public long observe(String productId) {
+        AtomicLong marker = markers.get(productId);
+        return marker == null ? 0L : marker.get();
+    }
+
+    public boolean isSoldOut(String productId) {
+        return isSoldOut(observe(productId));
+    }
+
+    public static boolean isSoldOut(long state) {
+        return (state & SOLD_OUT_BIT) != 0;
+    }
+
+    // 标记售罄，observedState 是请求开始时 observe 的结果；期间商品被重新开放过则放弃标记
+    public boolean markSoldOut(String productId, long observedState) {
+        AtomicLong marker = markers.computeIfAbsent(productId, k -> new AtomicLong());
+        long epoch = observedState >>> 1;
+        while (true) {
+            long state = marker.get();
+            if ((state >>> 1) != epoch) {
+                return false;
+            }
+            if (isSoldOut(state)) {
+                return true;
+            }
+            if (marker.compareAndSet(state, state | SOLD_OUT_BIT)) {
+                Listener current = listener;
+                if (current != null) {
+                    current.onSoldOut(productId);
+                }
+                return true;
+            }
+        }
+    }
+
+    // 库存归还后重新开放商品：版本号加一，清除售罄位
+    public void reopen(String productId) {
+        AtomicLong marker = markers.computeIfAbsent(productId, k -> new AtomicLong());
+        while (true) {
+            long state = marker.get();
+            long next = ((state >>> 1) + 1) << 1;
+            if (marker.compareAndSet(state, next)) {
+                Listener current = listener;
+                if (current != null && isSoldOut(state)) {
+                    current.onReopened(productId);
+                }
+                return;
+            }
+        }
+    }
+}
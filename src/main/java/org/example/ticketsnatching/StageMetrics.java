@@ -0,0 +1,126 @@
+package org.example.ticketsnatching;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个阶段的计数器和延迟直方图</br>
+ * 记录时只有 LongAdder 自增和一次直方图记录，不加锁、不分配对象。</br>
+ * 直方图有两个，记录写入当前窗口的那个；{@link #roll(double)} 在统计线程上交换两个直方图，</br>
+ * 从刚结束的窗口算出速率和分位数，供JMX读取。交换瞬间仍在写旧直方图的样本可能计入上一个窗口或在下次交换时被清掉，对分位数的影响可以忽略。
+ */
+public class StageMetrics implements StageMetricsMBean {
+    private final SeckillMetrics.Stage stage;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private volatile LatencyHistogram recording = new LatencyHistogram();
+    private LatencyHistogram spare = new LatencyHistogram();
+
+    // 上个窗口的统计结果
+    private long lastCount;
+    private long lastErrors;
+    private volatile double ratePerSecond;
+    private volatile double errorRatePerSecond;
+    private volatile long windowSamples;
+    private volatile long p50;
+    private volatile long p99;
+    private volatile long p999;
+    private volatile long max;
+    private volatile double mean;
+
+    StageMetrics(SeckillMetrics.Stage stage) {
+        this.stage = stage;
+    }
+
+    // 一次操作 (或一批 events 个操作) 耗时 nanos
+    void record(long nanos, int events) {
+        count.add(events);
+        recording.record(nanos);
+    }
+
+    void recordError() {
+        errors.increment();
+    }
+
+    // 结束当前窗口，只在统计线程上调用
+    void roll(double windowSeconds) {
+        LatencyHistogram finished = recording;
+        spare.reset();
+        recording = spare;
+        spare = finished;
+
+        long currentCount = count.sum();
+        long currentErrors = errors.sum();
+        ratePerSecond = (currentCount - lastCount) / windowSeconds;
+        errorRatePerSecond = (currentErrors - lastErrors) / windowSeconds;
+        lastCount = currentCount;
+        lastErrors = currentErrors;
+
+        windowSamples = finished.count();
+        p50 = finished.percentile(0.5);
+        p99 = finished.percentile(0.99);
+        p999 = finished.percentile(0.999);
+        max = finished.max();
+        mean = finished.mean();
+    }
+
+    @Override
+    public String getStage() {
+        return stage.name();
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    @Override
+    public double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    @Override
+    public double getErrorRatePerSecond() {
+        return errorRatePerSecond;
+    }
+
+    @Override
+    public long getWindowSamples() {
+        return windowSamples;
+    }
+
+    @Override
+    public long getP50Nanos() {
+        return p50;
+    }
+
+    @Override
+    public long getP99Nanos() {
+        return p99;
+    }
+
+    @Override
+    public long getP999Nanos() {
+        return p999;
+    }
+
+    @Override
+    public long getMaxNanos() {
+        return max;
+    }
+
+    @Override
+    public double getMeanNanos() {
+        return mean;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s{count=%d, errors=%d, rate=%.1f/s, p50=%dns, p99=%dns, p999=%dns, max=%dns}",
+                stage, getCount(), getErrorCount(), ratePerSecond, p50, p99, p999, max);
+    }
+}
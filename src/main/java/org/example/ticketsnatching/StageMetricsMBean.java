@@ -0,0 +1,29 @@
+package org.example.ticketsnatching;
+
+/**
+ * 秒杀流水线一个阶段的JMX视图 (标准MBean)</br>
+ * 累计值从启动开始统计；速率和分位数是最近一个统计窗口 ({@link Config#METRICS_WINDOW_SECONDS}) 的结果，延迟单位为纳秒。
+ */
+public interface StageMetricsMBean {
+    String getStage();
+
+    long getCount();
+
+    long getErrorCount();
+
+    double getRatePerSecond();
+
+    double getErrorRatePerSecond();
+
+    long getWindowSamples();
+
+    long getP50Nanos();
+
+    long getP99Nanos();
+
+    long getP999Nanos();
+
+    long getMaxNanos();
+
+    double getMeanNanos();
+}
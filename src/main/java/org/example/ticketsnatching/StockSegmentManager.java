@@ -0,0 +1,89 @@
+package org.example.ticketsnatching;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 本地库存段管理</br>
+ * 节点一次从Redis租借 {@link Config#STOCK_SEGMENT_SIZE} 个库存 (一次原子扣减)，之后在本地通过CAS无锁分配，</br>
+ * 本地库存段用完才再次访问Redis，Redis调用次数从“每个请求一次”降为“每段一次”。</br>
+ * 租借时Redis中的库存已经真实扣减，所以所有节点本地库存之和永远不会超过总库存，不会超卖。</br>
+ * 秒杀结束或节点关闭时，调用 {@link #returnAll()} 把未分配的库存归还Redis。
+ */
+@Slf4j
+public class StockSegmentManager {
+    private static final Map<String, Segment> segments = new ConcurrentHashMap<>();
+
+    private static class Segment {
+        // 本地剩余可分配的库存
+        final AtomicInteger available = new AtomicInteger();
+        // 每租借一次加一，用来判断等待期间其他线程是否已经租借过
+        volatile int leaseVersion;
+        // 最近一次租借到的数量
+        volatile long lastGrant = -1;
+        // 串行化向Redis租借，锁内有网络I/O，用 ReentrantLock 避免钉住虚拟线程的载体线程
+        final ReentrantLock leaseLock = new ReentrantLock();
+    }
+
+    // 从本地库存段分配一个库存，本地用完时再向Redis租借下一段
+    public static boolean tryAcquire(String productId) {
+        Segment segment = segments.computeIfAbsent(productId, k -> new Segment());
+        while (true) {
+            int n = segment.available.get();
+            if (n > 0) {
+                if (segment.available.compareAndSet(n, n - 1)) {
+                    return true;
+                }
+                continue;
+            }
+            int observedVersion = segment.leaseVersion;
+            segment.leaseLock.lock();
+            try {
+                if (segment.available.get() > 0) {
+                    continue;
+                }
+                // 等锁期间别的线程已经租借过且Redis已无库存，不再重复访问Redis
+                if (segment.leaseVersion != observedVersion && segment.lastGrant == 0) {
+                    return false;
+                }
+                long grant = RedisManager.leaseStock(productId, Config.STOCK_SEGMENT_SIZE);
+                segment.lastGrant = grant;
+                segment.leaseVersion++;
+                if (grant == 0) {
+                    return false;
+                }
+                log.info("[库存段] 商品 {} 从Redis租借 {} 个库存", productId, grant);
+                segment.available.addAndGet((int) grant);
+            } finally {
+                segment.leaseLock.unlock();
+            }
+        }
+    }
+
+    // 补偿：把已分配的库存放回本地库存段
+    public static void release(String productId) {
+        segments.computeIfAbsent(productId, k -> new Segment()).available.incrementAndGet();
+    }
+
+    // 秒杀结束：归还某个商品未分配的库存
+    public static void returnUnused(String productId) {
+        Segment segment = segments.get(productId);
+        if (segment == null) {
+            return;
+        }
+        int unused = segment.available.getAndSet(0);
+        if (unused > 0) {
+            RedisManager.returnStock(productId, unused);
+            log.info("[库存段] 商品 {} 归还 {} 个未使用库存到Redis", productId, unused);
+        }
+    }
+
+    // 节点关闭：归还所有商品未分配的库存
+    public static void returnAll() {
+        segments.keySet().forEach(StockSegmentManager::returnUnused);
+    }
+}
@@ -0,0 +1,49 @@
+package org.example.ticketsnatching;
+
+import java.util.Collection;
+
+/**
+ * 秒杀库存存储</br>
+ * {@link RedisStockStore}：Redis Lua脚本预扣减 (可选本地库存段模式)，线上使用</br>
+ * {@link InMemoryStockStore}：进程内分段原子计数器，不依赖Redis，用于单机压测以及单独比较库存层的开销</br>
+ * 开启 {@link Config#ONE_ORDER_PER_USER} 时，扣减库存和记录购买用户是一次原子操作，同一用户对同一商品只能扣减成功一次。
+ */
+public interface StockStore {
+    // 一次预扣减的结果
+    enum DeductResult {
+        // 扣减成功
+        GRANTED,
+        // 库存不足
+        SOLD_OUT,
+        // 用户已经抢到过该商品，没有扣减
+        DUPLICATE
+    }
+
+    // 设置商品初始库存
+    void setStock(String productId, int stock);
+
+    // 原子预扣减一个库存 (同时检查并记录购买用户)
+    DeductResult tryDeduct(String userId, String productId);
+
+    // 本地可以确定用户已经抢到过该商品 (不访问Redis)，用于在准入控制和扣减之前快速拒绝重复请求
+    boolean hasPurchased(String userId, String productId);
+
+    // 撤销一次成功的预扣减 (例如发送MQ消息失败)，用户可以重新抢购
+    void cancelDeduct(String userId, String productId);
+
+    // 订单取消/超时后归还库存，并重新开放已售罄的商品；购买用户未知时 (例如下单消息丢失) 只归还库存
+    void returnStock(String productId, int count);
+
+    // 订单取消/超时后归还这些用户的库存，用户可以重新抢购
+    void returnStock(String productId, Collection<String> buyers);
+
+    // 清空商品的购买记录 (新一轮秒杀或压测前使用)
+    void clearBuyers(String productId);
+
+    // 商品售罄标记，用于快速失败
+    SoldOutIndex soldOutIndex();
+
+    // 秒杀结束或节点关闭时释放资源
+    default void close() {
+    }
+}
@@ -0,0 +1,62 @@
+package org.example.ticketsnatching;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 字符串字典：把重复出现的字符串 (商品ID、用户ID) 映射成int编号，每个字符串只保存一份</br>
+ * 编号到字符串的反查表按块分配，块内是普通数组，查找不加锁。
+ */
+class StringDictionary {
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int MAX_CHUNKS = 1 << 12;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<String[]> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    public int intern(String value) {
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        return ids.computeIfAbsent(value, k -> {
+            int newId = nextId.getAndIncrement();
+            chunkOf(newId)[newId & (CHUNK_SIZE - 1)] = k;
+            return newId;
+        });
+    }
+
+    // 编号一定来自 intern 的返回值 (computeIfAbsent 保证写入对查询方可见)
+    public String lookup(int id) {
+        return chunks.get(id >>> CHUNK_BITS)[id & (CHUNK_SIZE - 1)];
+    }
+
+    public int size() {
+        return nextId.get();
+    }
+
+    private String[] chunkOf(int id) {
+        int index = id >>> CHUNK_BITS;
+        if (index >= MAX_CHUNKS) {
+            throw new IllegalStateException("字典已满，最多 " + MAX_CHUNKS * CHUNK_SIZE + " 个字符串");
+        }
+        String[] chunk = chunks.get(index);
+        if (chunk == null) {
+            chunks.compareAndSet(index, null, new String[CHUNK_SIZE]);
+            chunk = chunks.get(index);
+        }
+        return chunk;
+    }
+
+    public void clear() {
+        ids.clear();
+        for (int i = 0; i < MAX_CHUNKS; i++) {
+            chunks.set(i, null);
+        }
+        nextId.set(0);
+    }
+}
@@ -1,45 +1,101 @@
 package org.example.ticketsnatching;
 
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.DeliverCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static org.example.ticketsnatching.Config.ORDER_TIMEOUT_DEAD_LETTER_QUEUE;
 
+/**
+ * 超时订单消费者</br>
+ * MESSAGE_TTL 模式下消费死信队列中的超时检查消息；TIMING_WHEEL 模式下由时间轮调用 {@link #expireAll(List)} 成批处理到期订单。
+ */
 public class TimeoutConsumer implements Runnable {
     private static final Logger log = LoggerFactory.getLogger(TimeoutConsumer.class);
+    private final StockStore stockStore;
+
+    public TimeoutConsumer(StockStore stockStore) {
+        this.stockStore = stockStore;
+    }
 
     @Override
     public void run() {
         try {
-            Channel channel = MQManager.getChannel();
             log.info("超时订单消费者启动，等待消息...");
-
-            DeliverCallback deliverCallback = (consumerTag, delivery) -> {
-                String orderId = new String(delivery.getBody(), StandardCharsets.UTF_8);
-                log.info("[超时消费者] 收到超时检查消息，订单ID: {}", orderId);
-
-                DatabaseManager.Order order = DatabaseManager.getOrder(orderId);
-                if (order != null && "AwaitingPayment".equals(order.status)) {
-                    // 订单仍是待支付状态，执行取消操作
-                    DatabaseManager.updateOrderStatusInDB(orderId, "TimeoutCancelled");
-                    DatabaseManager.increaseStockInDB(order.productId);
-                    log.warn("[超时消费者] 订单 {} 已超时，自动取消并归还库存。", orderId);
-                    String notification = String.format("您的订单 %s 因超时未支付已被自动取消。", orderId);
-                    WebSocketManager.sendMessageToUser(order.userId, notification);
-                } else {
-                    // 订单已支付或已手动取消，无需处理
-                    log.info("[超时消费者] 订单 {} 状态已改变，无需处理。当前状态: {}", orderId, order != null ? order.status : "不存在");
-                }
-                channel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
-            };
-            channel.basicConsume(ORDER_TIMEOUT_DEAD_LETTER_QUEUE, false, deliverCallback, consumerTag -> {});
+            MQManager.startConsumer(ORDER_TIMEOUT_DEAD_LETTER_QUEUE, Config.TIMEOUT_CONSUMER_PREFETCH, Config.TIMEOUT_CONSUMER_WORKERS,
+                    acknowledger -> (body, deliveryTag) -> handle(acknowledger, body, deliveryTag));
         } catch (IOException e) {
             log.error("超时订单消费者异常", e);
         }
     }
+
+    // 处理并确认，每个消费者的确认互不影响
+    private void handle(MessageBus.Acknowledger acknowledger, byte[] body, long deliveryTag) throws IOException {
+        long orderId;
+        try {
+            orderId = MessageCodec.decodeTimeout(body);
+        } catch (IllegalArgumentException e) {
+            log.error("[超时消费者] 无法解析的超时检查消息，已丢弃", e);
+            acknowledger.ack(deliveryTag, false);
+            return;
+        }
+        log.info("[超时消费者] 收到超时检查消息，订单ID: {}", orderId);
+        expire(orderId);
+        acknowledger.ack(deliveryTag, false);
+    }
+
+    // 订单仍是待支付状态才执行取消操作，CAS流转保证与手动取消、支付并发时只有一方成功
+    public void expire(long orderId) {
+        long start = SeckillMetrics.start();
+        DatabaseManager.Order order = cancelIfAwaiting(orderId);
+        if (order != null) {
+            DatabaseManager.increaseStockInDB(order.productId);
+            // 归还预扣减的库存并重新开放商品，让库存可以被再次抢购
+            stockStore.returnStock(order.productId, List.of(order.userId));
+            notifyUser(order);
+        }
+        SeckillMetrics.record(SeckillMetrics.Stage.TIMEOUT_HANDLING, start);
+    }
+
+    // 成批处理到期订单 (时间轮)：同一商品的库存合并成一次归还
+    public void expireAll(List<Long> orderIds) {
+        long start = SeckillMetrics.start();
+        Map<String, List<String>> returned = new HashMap<>();
+        for (long orderId : orderIds) {
+            DatabaseManager.Order order = cancelIfAwaiting(orderId);
+            if (order != null) {
+                returned.computeIfAbsent(order.productId, k -> new ArrayList<>()).add(order.userId);
+                notifyUser(order);
+            }
+        }
+        returned.forEach((productId, buyers) -> {
+            DatabaseManager.increaseStockInDB(productId, buyers.size());
+            stockStore.returnStock(productId, buyers);
+        });
+        SeckillMetrics.record(SeckillMetrics.Stage.TIMEOUT_HANDLING, start, orderIds.size());
+        log.info("[超时消费者] 批量处理 {} 个到期订单，取消 {} 个", orderIds.size(),
+                returned.values().stream().mapToInt(List::size).sum());
+    }
+
+    // 成功流转为超时取消时返回订单，否则返回null
+    private static DatabaseManager.Order cancelIfAwaiting(long orderId) {
+        DatabaseManager.Order order = DatabaseManager.getOrder(orderId);
+        if (order != null && DatabaseManager.transitionOrderStatus(orderId, OrderStatus.AWAITING_PAYMENT, OrderStatus.TIMEOUT_CANCELLED)) {
+            log.warn("[超时消费者] 订单 {} 已超时，自动取消并归还库存。", orderId);
+            return order;
+        }
+        // 订单已支付或已手动取消，无需处理
+        log.info("[超时消费者] 订单 {} 状态已改变，无需处理。当前状态: {}", orderId, order != null ? order.getStatus() : "不存在");
+        return null;
+    }
+
+    private static void notifyUser(DatabaseManager.Order order) {
+        String notification = String.format("您的订单 %s 因超时未支付已被自动取消。", order.orderId);
+        WebSocketManager.sendOrderNotification(order.userId, String.valueOf(order.orderId), notification);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,65 @@
+package org.example.ticketsnatching;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 订单支付超时的入口，按 {@link Config#ORDER_TIMEOUT_MODE} 选择实现</br>
+ * 1. MESSAGE_TTL：每个订单发一条带过期时间的延迟消息，过期后经死信队列投递给 {@link TimeoutConsumer}。</br>
+ * 每个订单多一条消息，而且broker只从队首过期消息，队首的消息没到期时后面的消息也出不来</br>
+ * 2. TIMING_WHEEL：订单登记到进程内的 {@link OrderTimeoutWheel}，支付或取消后立即移除，到期订单成批交给超时处理
+ */
+@Slf4j
+public class TimeoutManager {
+    public enum Mode {
+        MESSAGE_TTL,
+        TIMING_WHEEL
+    }
+
+    private static OrderTimeoutWheel wheel;
+
+    public static boolean usesTimingWheel() {
+        return Config.ORDER_TIMEOUT_MODE == Mode.TIMING_WHEEL;
+    }
+
+    // 启动时间轮，expiredHandler 处理一批到期的订单ID；MESSAGE_TTL 模式下不需要调用
+    public static void start(Consumer<List<Long>> expiredHandler) {
+        wheel = new OrderTimeoutWheel(Config.TIMEOUT_WHEEL_TICK_MS, Config.TIMEOUT_WHEEL_SIZE, expiredHandler);
+        log.info("[超时管理] 时间轮已启动，精度 {} ms，槽数 {}", Config.TIMEOUT_WHEEL_TICK_MS, Config.TIMEOUT_WHEEL_SIZE);
+    }
+
+    // 登记订单在 ORDER_TIMEOUT_MS 后检查是否支付
+    public static void schedule(long orderId) throws IOException {
+        if (usesTimingWheel()) {
+            wheel.schedule(orderId, Config.ORDER_TIMEOUT_MS);
+        } else {
+            MQManager.sendDelayedTimeoutMessage(orderId);
+        }
+    }
+
+    public static void scheduleAll(List<Long> orderIds) throws IOException {
+        if (usesTimingWheel()) {
+            for (long orderId : orderIds) {
+                wheel.schedule(orderId, Config.ORDER_TIMEOUT_MS);
+            }
+        } else {
+            MQManager.sendDelayedTimeoutMessages(orderIds);
+        }
+    }
+
+    // 订单已支付或已取消，不再需要超时检查；延迟消息发出后无法撤回，MESSAGE_TTL 模式下由超时消费者按订单状态忽略
+    public static void cancel(long orderId) {
+        if (usesTimingWheel()) {
+            wheel.cancel(orderId);
+        }
+    }
+
+    public static void close() {
+        if (wheel != null) {
+            wheel.close();
+        }
+    }
+}
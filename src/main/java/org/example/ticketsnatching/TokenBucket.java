@@ -0,0 +1,55 @@
+package org.example.ticketsnatching;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * 无锁令牌桶 (GCRA 算法)</br>
+ * 不保存令牌数，只保存一个"理论到达时间" tat：每取一个令牌 tat 后移一个发放间隔，</br>
+ * tat 超前当前时间超过 容量 x 间隔 时说明桶已空。取令牌是一次读加一次CAS，不加锁、不分配对象，</br>
+ * 也不需要后台线程补充令牌。tat 不晚于当前时间说明桶是满的，此时丢掉这个桶和新建一个没有区别。
+ */
+public class TokenBucket {
+    private static final VarHandle TAT;
+
+    static {
+        try {
+            TAT = MethodHandles.lookup().findVarHandle(TokenBucket.class, "tat", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final long intervalNanos;
+    private final long capacityNanos;
+    private volatile long tat;
+
+    // ratePerSecond 每秒发放的令牌数，burst 桶容量 (允许的突发请求数)；新建的桶是满的
+    public TokenBucket(double ratePerSecond, int burst, long nowNanos) {
+        if (ratePerSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("令牌速率和桶容量必须为正数");
+        }
+        this.intervalNanos = Math.max(1, (long) (1_000_000_000L / ratePerSecond));
+        this.capacityNanos = intervalNanos * burst;
+        this.tat = nowNanos;
+    }
+
+    public boolean tryAcquire(long nowNanos) {
+        while (true) {
+            long current = tat;
+            // nanoTime 可能为负，用差值比较
+            long next = (current - nowNanos < 0 ? nowNanos : current) + intervalNanos;
+            if (next - nowNanos > capacityNanos) {
+                return false;
+            }
+            if (TAT.compareAndSet(this, current, next)) {
+                return true;
+            }
+        }
+    }
+
+    // 桶已经满了 idleNanos 以上 (这段时间没有取过令牌)
+    public boolean isIdle(long nowNanos, long idleNanos) {
+        return nowNanos - tat >= idleNanos;
+    }
+}
@@ -1,7 +1,11 @@
 package org.example.ticketsnatching;
 
 import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
 import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.DefaultExtension;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.handshake.ServerHandshake;
 import org.java_websocket.server.WebSocketServer;
@@ -11,14 +15,46 @@ import org.slf4j.LoggerFactory;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * WebSocket服务端，向用户推送订单通知</br>
+ * 通知先进入连接自己的有界队列 (见 {@link WebSocketSession})，由推送线程发送，</br>
+ * 调用方 (订单、支付、超时消费者) 只做一次入队，不会被网络写入或慢客户端阻塞。</br>
+ * 售卖状态 (开售/售罄/补货) 以预编码的帧广播给所有连接或订阅了该商品的连接 (见 {@link SaleStatusFrame})，</br>
+ * 广播在推送线程上执行，同一商品在 {@link Config#SALE_STATUS_DEBOUNCE_MS} 内的多次变化只广播最后的状态，</br>
+ * 同一商品同时最多只有一个广播任务 (广播比合并窗口还长时，期间的变化等它结束后再广播，不会乱序)，</br>
+ * 与上次广播相同则不再广播 (归还一件库存又马上被抢走时不会产生一对 补货+售罄 广播)，</br>
+ * 客户端收到售罄后停止重试。客户端发送 "subscribe:商品ID" 订阅商品。
+ */
 public class WebSocketManager extends WebSocketServer {
     private static final Logger log = LoggerFactory.getLogger(WebSocketManager.class);
-    private static final Map<String, WebSocket> userSocketMap = new ConcurrentHashMap<>();
+    private static final Map<String, WebSocketSession> userSocketMap = new ConcurrentHashMap<>();
+    private static final AtomicInteger dispatcherThreads = new AtomicInteger();
+    private static final ScheduledExecutorService dispatcher = Executors.newScheduledThreadPool(Config.WEBSOCKET_DISPATCHER_THREADS, r -> {
+        Thread thread = new Thread(r, "websocket-dispatcher-" + dispatcherThreads.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    // 商品ID -> 订阅了该商品售卖状态的连接
+    private static final Map<String, Set<WebSocket>> topicSubscribers = new ConcurrentHashMap<>();
+    // 商品ID -> 该商品的售卖状态广播
+    private static final Map<String, SaleStatusTopic> saleStatusTopics = new ConcurrentHashMap<>();
     private static final List<WebSocketClient> clients = new ArrayList<>();
+    // 订单通知的观察者 (压测统计 请求 -> 通知 的延迟)，未设置时为null
+    private static volatile NotificationObserver notificationObserver;
+    // 模拟客户端收到的售罄广播，收到后不再发起秒杀请求
+    private static final Set<String> clientKnownSoldOut = ConcurrentHashMap.newKeySet();
 
     public WebSocketManager(int port) {
         super(new InetSocketAddress(port));
@@ -33,10 +69,19 @@ public class WebSocketManager extends WebSocketServer {
 
     @Override
     public void onClose(WebSocket conn, int code, String reason, boolean remote) {
-        String userId = getUserIdBySocket(conn);
-        if (userId != null) {
-            userSocketMap.remove(userId);
-            log.info("[WebSocket] 用户 {} 的WebSocket连接已关闭", userId);
+        // 注册时会话挂在连接上，O(1)取出；只移除属于这个连接的会话，用户已用新连接重新注册时不受影响
+        WebSocketSession session = conn.getAttachment();
+        if (session == null) {
+            return;
+        }
+        for (String topic : session.topics) {
+            Set<WebSocket> subscribers = topicSubscribers.get(topic);
+            if (subscribers != null) {
+                subscribers.remove(conn);
+            }
+        }
+        if (userSocketMap.remove(session.userId, session)) {
+            log.info("[WebSocket] 用户 {} 的WebSocket连接已关闭", session.userId);
         }
     }
 
@@ -46,9 +91,22 @@ public class WebSocketManager extends WebSocketServer {
         // 消息格式: "register:userId"
         if (message.startsWith("register:")) {
             String userId = message.split(":")[1];
-            userSocketMap.put(userId, conn);
+            WebSocketSession session = new WebSocketSession(userId, conn, Config.WEBSOCKET_OUTBOUND_QUEUE_CAPACITY, dispatcher);
+            conn.setAttachment(session);
+            userSocketMap.put(userId, session);
             log.info("[WebSocket] 用户 {} 注册到WebSocket, 地址: {}", userId, conn.getRemoteSocketAddress());
             conn.send("注册成功！");
+        } else if (message.startsWith("subscribe:")) {
+            // 消息格式: "subscribe:productId"，注册之后才能订阅
+            WebSocketSession session = conn.getAttachment();
+            if (session == null) {
+                conn.send("请先注册再订阅");
+                return;
+            }
+            String productId = message.substring("subscribe:".length());
+            session.topics.add(productId);
+            topicSubscribers.computeIfAbsent(productId, k -> ConcurrentHashMap.newKeySet()).add(conn);
+            log.info("[WebSocket] 用户 {} 订阅商品 {} 的售卖状态", session.userId, productId);
         }
     }
 
@@ -63,21 +121,138 @@ public class WebSocketManager extends WebSocketServer {
     }
 
     public static void sendMessageToUser(String userId, String message) {
-        WebSocket conn = userSocketMap.get(userId);
-        if (conn != null && conn.isOpen()) {
-            log.info("[WebSocket] 向用户 {} 推送消息: {}", userId, message);
-            conn.send(message);
+        sendOrderNotification(userId, null, message);
+    }
+
+    // 订单通知产生时回调，在发送通知的消费者线程上执行，不应阻塞
+    public interface NotificationObserver {
+        void onNotification(String userId, String orderId, String message);
+    }
+
+    public static void setNotificationObserver(NotificationObserver observer) {
+        notificationObserver = observer;
+    }
+
+    // 推送订单通知：同一订单还没发出的通知会被新通知替换
+    public static void sendOrderNotification(String userId, String orderId, String message) {
+        NotificationObserver observer = notificationObserver;
+        if (observer != null) {
+            observer.onNotification(userId, orderId, message);
+        }
+        WebSocketSession session = userSocketMap.get(userId);
+        if (session != null && session.conn.isOpen()) {
+            session.offer(orderId, message);
         } else {
             log.warn("[WebSocket] 无法向用户 {} 推送消息，连接不存在或已关闭", userId);
         }
     }
 
-    private String getUserIdBySocket(WebSocket conn) {
-        return userSocketMap.entrySet().stream()
-                .filter(entry -> entry.getValue().equals(conn))
-                .map(Map.Entry::getKey)
-                .findFirst()
-                .orElse(null);
+    // 广播售卖状态，由售罄标记的监听器和开售时调用；只记录最新状态并交给推送线程，调用方不遍历连接
+    public static void broadcastSaleStatus(SaleStatusFrame.Event event, String productId) {
+        SaleStatusTopic topic = saleStatusTopics.computeIfAbsent(productId, SaleStatusTopic::new);
+        topic.pending.set(event);
+        topic.schedule();
+    }
+
+    /**
+     * 一个商品的售卖状态广播</br>
+     * scheduled 与 {@link WebSocketSession} 的推送标记相同：从调度到广播结束一直保持，同一商品同时只有一个广播任务，</br>
+     * 两个推送线程不会同时广播同一商品，先发生的状态也不会在后发生的状态之后送达。
+     */
+    private static final class SaleStatusTopic {
+        final String productId;
+        // 等待广播的最新状态
+        final AtomicReference<SaleStatusFrame.Event> pending = new AtomicReference<>();
+        // 是否已有广播任务 (已调度或正在广播)
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        // 上次广播的状态，只在持有标记的广播任务中读写
+        SaleStatusFrame.Event last;
+
+        SaleStatusTopic(String productId) {
+            this.productId = productId;
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                dispatcher.schedule(this::flush, Config.SALE_STATUS_DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        // 在推送线程上广播合并后的状态；广播期间到达的变化在结束后重新调度一次
+        void flush() {
+            try {
+                SaleStatusFrame.Event event = pending.getAndSet(null);
+                WebSocketManager server = WebSocketManagerHandle.webSocketManager;
+                if (event == null || server == null || event == last) {
+                    return;
+                }
+                last = event;
+                SaleStatusFrame frame = SaleStatusFrame.of(event, productId);
+                if (Config.SALE_STATUS_TOPIC_ONLY) {
+                    server.broadcastFrame(frame, topicSubscribers.getOrDefault(productId, Set.of()));
+                } else {
+                    server.broadcastFrame(frame, server.getConnections());
+                }
+            } finally {
+                scheduled.set(false);
+                // 清除标记之前到达的变化可能没有调度广播，再检查一次
+                if (pending.get() != null) {
+                    schedule();
+                }
+            }
+        }
+    }
+
+    // 售罄标记的监听器：商品售罄、重新开放时广播
+    public static SoldOutIndex.Listener saleStatusListener() {
+        return new SoldOutIndex.Listener() {
+            @Override
+            public void onSoldOut(String productId) {
+                broadcastSaleStatus(SaleStatusFrame.Event.SOLD_OUT, productId);
+            }
+
+            @Override
+            public void onReopened(String productId) {
+                broadcastSaleStatus(SaleStatusFrame.Event.RESTOCKED, productId);
+            }
+        };
+    }
+
+    /**
+     * 把同一个预编码帧写给一组连接</br>
+     * 连接协商的是标准 Draft_6455 且没有启用扩展时，直接把帧的只读视图放进发送队列并通知选择器写出，</br>
+     * 和库内部的写入方式一致，不按连接重新编码或拷贝。预编码帧是不带RSV位、不压缩的原始帧，</br>
+     * 启用了扩展 (如 permessage-deflate 要求压缩负载并置RSV1) 或使用其他Draft的连接不能原样写入，</br>
+     * 这些连接以及非 WebSocketImpl 的实现都退回到按文本发送，由库按连接的协议编码。
+     */
+    public void broadcastFrame(SaleStatusFrame frame, Collection<WebSocket> connections) {
+        long start = System.nanoTime();
+        int sent = 0;
+        for (WebSocket conn : connections) {
+            if (!conn.isOpen()) {
+                continue;
+            }
+            if (conn instanceof WebSocketImpl impl && acceptsRawFrame(impl.getDraft())) {
+                impl.outQueue.add(frame.frame());
+                onWriteDemand(impl);
+            } else {
+                conn.send(frame.text());
+            }
+            sent++;
+        }
+        log.info("[WebSocket] 广播 {} 商品 {} 到 {} 个连接，耗时 {} us", frame.event(), frame.productId(), sent,
+                TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+    }
+
+    // 连接的协议是否原样接受预编码帧：只比较确切的类，Draft_6455 的子类和 DefaultExtension 的子类 (压缩扩展) 都不算
+    private static boolean acceptsRawFrame(Draft draft) {
+        return draft.getClass() == Draft_6455.class
+                && ((Draft_6455) draft).getExtension().getClass() == DefaultExtension.class;
+    }
+
+    // 模拟客户端是否已收到商品售罄的广播
+    public static boolean isKnownSoldOut(String productId) {
+        return clientKnownSoldOut.contains(productId);
     }
 
     // 创建WebSocket客户端
@@ -94,6 +269,20 @@ public class WebSocketManager extends WebSocketServer {
             @Override
             public void onMessage(String message) {
                 log.info("[WebSocket] 客户端-{} 收到实时通知: {}", userId, message);
+                if (message.startsWith(SaleStatusFrame.PREFIX)) {
+                    onSaleStatus(message.substring(SaleStatusFrame.PREFIX.length()));
+                }
+            }
+
+            // "{事件}:{商品ID}"：售罄后停止重试，补货或开售后恢复
+            private void onSaleStatus(String status) {
+                int separator = status.indexOf(':');
+                String productId = status.substring(separator + 1);
+                if (status.startsWith(SaleStatusFrame.Event.SOLD_OUT.name())) {
+                    clientKnownSoldOut.add(productId);
+                } else {
+                    clientKnownSoldOut.remove(productId);
+                }
             }
 
             @Override
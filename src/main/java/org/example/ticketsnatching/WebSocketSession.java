@@ -0,0 +1,137 @@
+package org.example.ticketsnatching;
+
+import org.java_websocket.WebSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 一个已注册用户的WebSocket连接及其待发送通知</br>
+ * 1. 通知先放入连接自己的有界队列，由推送线程发送，消费者线程不会因为网络写入或慢客户端阻塞</br>
+ * 2. 同一订单的通知合并：队列中还有该订单未发出的通知时，新通知替换旧通知 (位置不变)，客户端只收到订单的最新状态</br>
+ * 3. 队列满时丢弃最早的通知；连接的发送缓冲区还有数据 (客户端跟不上) 时暂停发送，稍后再试，期间到达的通知继续合并</br>
+ * 会话通过 {@link WebSocket#setAttachment(Object)} 挂在连接上，连接关闭时直接取出，不需要遍历用户表。
+ */
+class WebSocketSession {
+    private static final Logger log = LoggerFactory.getLogger(WebSocketSession.class);
+
+    final String userId;
+    final WebSocket conn;
+    // 订阅的商品，连接关闭时从对应的订阅列表中移除
+    final Set<String> topics = ConcurrentHashMap.newKeySet();
+    private final int capacity;
+    private final ScheduledExecutorService dispatcher;
+
+    // 合并键 (订单ID) -> 通知，按首次入队的顺序发送
+    private final LinkedHashMap<String, String> pending = new LinkedHashMap<>();
+    // 没有订单ID的通知使用的合并键，各不相同
+    private long anonymousKeys;
+    private long dropped;
+    // 是否已经提交给推送线程，保证同一连接同时只有一个推送任务
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    WebSocketSession(String userId, WebSocket conn, int capacity, ScheduledExecutorService dispatcher) {
+        this.userId = userId;
+        this.conn = conn;
+        this.capacity = capacity;
+        this.dispatcher = dispatcher;
+    }
+
+    // 放入待发送队列，orderId 为null时不合并
+    void offer(String orderId, String message) {
+        synchronized (this) {
+            String key = orderId != null ? orderId : "#" + anonymousKeys++;
+            if (pending.put(key, message) == null && pending.size() > capacity) {
+                Iterator<Map.Entry<String, String>> eldest = pending.entrySet().iterator();
+                eldest.next();
+                eldest.remove();
+                if (dropped++ % 1000 == 0) {
+                    log.warn("[WebSocket] 用户 {} 的推送队列已满，丢弃最早的通知，累计丢弃 {} 条", userId, dropped);
+                }
+            }
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            dispatcher.execute(this::drain);
+        }
+    }
+
+    // 在推送线程上执行：每次最多发送 WEBSOCKET_DRAIN_BATCH 条，剩余的重新排队，不让一个连接占住推送线程
+    private void drain() {
+        boolean handedOff = false;
+        try {
+            handedOff = drainBatch();
+        } finally {
+            // 没有交给下一个推送任务时总是清除标记，发送异常也不会让连接再也得不到推送
+            if (!handedOff) {
+                scheduled.set(false);
+                // 清除标记之前入队的通知可能没有提交推送任务，再检查一次
+                if (hasPending()) {
+                    schedule();
+                }
+            }
+        }
+    }
+
+    // 发送一批通知，返回true表示已经提交了下一个推送任务 (由它负责清除标记)
+    private boolean drainBatch() {
+        if (!conn.isOpen()) {
+            synchronized (this) {
+                pending.clear();
+            }
+            return false;
+        }
+        if (conn.hasBufferedData()) {
+            // 客户端跟不上：上一批还没写出去，稍后再试
+            dispatcher.schedule(this::drain, Config.WEBSOCKET_SLOW_CLIENT_RETRY_MS, TimeUnit.MILLISECONDS);
+            return true;
+        }
+        List<String> batch = poll(Config.WEBSOCKET_DRAIN_BATCH);
+        for (int i = 0; i < batch.size(); i++) {
+            String message = batch.get(i);
+            log.info("[WebSocket] 向用户 {} 推送消息: {}", userId, message);
+            long start = SeckillMetrics.start();
+            try {
+                conn.send(message);
+            } catch (RuntimeException e) {
+                // 通常是连接已断开：本批剩余的通知丢弃，队列中的通知由下一个推送任务处理 (连接已关闭时清空)
+                SeckillMetrics.recordError(SeckillMetrics.Stage.WEBSOCKET_PUSH);
+                log.warn("[WebSocket] 向用户 {} 推送消息失败，丢弃本批剩余的 {} 条通知", userId, batch.size() - i - 1, e);
+                return false;
+            }
+            SeckillMetrics.record(SeckillMetrics.Stage.WEBSOCKET_PUSH, start);
+        }
+        if (hasPending()) {
+            dispatcher.execute(this::drain);
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized List<String> poll(int max) {
+        List<String> batch = new ArrayList<>(Math.min(max, pending.size()));
+        Iterator<String> iterator = pending.values().iterator();
+        while (iterator.hasNext() && batch.size() < max) {
+            batch.add(iterator.next());
+            iterator.remove();
+        }
+        return batch;
+    }
+
+    private synchronized boolean hasPending() {
+        return !pending.isEmpty();
+    }
+}
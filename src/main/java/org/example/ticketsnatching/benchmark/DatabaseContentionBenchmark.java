@@ -0,0 +1,82 @@
+package org.example.ticketsnatching.benchmark;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.ticketsnatching.DatabaseManager;
+import org.example.ticketsnatching.DatabaseManager.ConcurrencyMode;
+import org.example.ticketsnatching.OrderStatus;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * DatabaseManager 并发模式对比压测</br>
+ * 线程数从1翻倍到CPU核数，每个线程随机选择商品执行 下单 + 查询 + 状态流转，</br>
+ * 分别在 GLOBAL_LOCK 和 STRIPED 模式下统计吞吐量，观察吞吐量随核数的扩展情况。
+ */
+@Slf4j
+public class DatabaseContentionBenchmark {
+    private static final int PRODUCTS = 64;
+    private static final int OPS_PER_THREAD = 100_000;
+    private static final int WARMUP_ROUNDS = 2;
+    private static final String[] PRODUCT_IDS = new String[PRODUCTS];
+
+    static {
+        for (int p = 0; p < PRODUCTS; p++) {
+            PRODUCT_IDS[p] = "product-" + p;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (ConcurrencyMode mode : ConcurrencyMode.values()) {
+            DatabaseManager.setConcurrencyMode(mode);
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                run(cores);
+            }
+            for (int threads = 1; threads <= cores; threads = nextThreads(threads, cores)) {
+                double opsPerSec = run(threads);
+                log.info("模式: {}, 线程数: {}, 吞吐量: {} ops/s", mode, threads, String.format("%,.0f", opsPerSec));
+            }
+        }
+    }
+
+    private static int nextThreads(int threads, int cores) {
+        return threads < cores && threads * 2 > cores ? cores : threads * 2;
+    }
+
+    // 返回每秒操作数 (一次下单、一次查询、一次状态流转各算一次操作)
+    private static double run(int threads) throws InterruptedException {
+        DatabaseManager.clear();
+        for (String productId : PRODUCT_IDS) {
+            DatabaseManager.initProduct(productId, Integer.MAX_VALUE);
+        }
+        CountDownLatch startSignal = new CountDownLatch(1);
+        CountDownLatch doneSignal = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int threadIndex = t;
+            new Thread(() -> {
+                try {
+                    startSignal.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    String userId = "user-" + threadIndex;
+                    for (int i = 0; i < OPS_PER_THREAD; i++) {
+                        long orderId = (long) threadIndex * OPS_PER_THREAD + i + 1;
+                        String productId = PRODUCT_IDS[random.nextInt(PRODUCTS)];
+                        DatabaseManager.createOrderInDB(orderId, productId, userId);
+                        DatabaseManager.getOrder(orderId);
+                        DatabaseManager.transitionOrderStatus(orderId, OrderStatus.AWAITING_PAYMENT, OrderStatus.PAID);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    doneSignal.countDown();
+                }
+            }).start();
+        }
+        long start = System.nanoTime();
+        startSignal.countDown();
+        doneSignal.await();
+        long elapsed = System.nanoTime() - start;
+        return (double) threads * OPS_PER_THREAD * 3 / elapsed * 1_000_000_000L;
+    }
+}
@@ -0,0 +1,66 @@
+package org.example.ticketsnatching.benchmark;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.ticketsnatching.OrderJournal;
+import org.example.ticketsnatching.OrderStatus;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 订单预写日志组提交压测</br>
+ * 多个线程以同步提交方式 (等待刷盘) 写入 创建 + 状态流转 记录，比较不同组提交批量下的吞吐量和刷盘次数。</br>
+ * 批量为1时每条记录各自 fsync，批量越大，越多的写入线程共享一次 fsync；</br>
+ * 批量超过同时等待的线程数后攒不满，只能等刷盘间隔，吞吐量反而下降。
+ */
+@Slf4j
+public class JournalGroupCommitBenchmark {
+    private static final int THREADS = 64;
+    private static final int RECORDS_PER_THREAD = 2_000;
+    private static final int FILE_SIZE = 64 * 1024 * 1024;
+    private static final int[] BATCH_SIZES = {1, 4, 16, 32, 64, 128};
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("journal-bench");
+        for (int batchSize : BATCH_SIZES) {
+            Path file = dir.resolve("orders-" + batchSize + ".journal");
+            try (OrderJournal journal = new OrderJournal(file, FILE_SIZE, batchSize, 1000, true)) {
+                long elapsed = run(journal);
+                long records = (long) THREADS * RECORDS_PER_THREAD * 2;
+                log.info("组提交批量: {}, 吞吐量: {} 条/秒, 刷盘次数: {}, 平均每次刷盘 {} 条",
+                        batchSize, String.format("%,.0f", records * 1e9 / elapsed), journal.getForceCount(),
+                        records / Math.max(1, journal.getForceCount()));
+            }
+            Files.deleteIfExists(file);
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    private static long run(OrderJournal journal) throws InterruptedException {
+        CountDownLatch startSignal = new CountDownLatch(1);
+        CountDownLatch doneSignal = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            final int threadIndex = t;
+            new Thread(() -> {
+                try {
+                    startSignal.await();
+                    for (int i = 0; i < RECORDS_PER_THREAD; i++) {
+                        long orderId = (long) threadIndex * RECORDS_PER_THREAD + i + 1;
+                        journal.appendCreate(orderId, "notebook", "user-" + threadIndex);
+                        journal.appendStatus(orderId, OrderStatus.PAID);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    doneSignal.countDown();
+                }
+            }).start();
+        }
+        long start = System.nanoTime();
+        startSignal.countDown();
+        doneSignal.await();
+        return System.nanoTime() - start;
+    }
+}
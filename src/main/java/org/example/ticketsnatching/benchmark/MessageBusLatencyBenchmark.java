@@ -0,0 +1,157 @@
+package org.example.ticketsnatching.benchmark;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.aqs.BoundedBuffer;
+import org.example.ticketsnatching.Config;
+import org.example.ticketsnatching.MessageBus;
+import org.example.ticketsnatching.RabbitMessageBus;
+import org.example.ticketsnatching.RingBufferMessageBus;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 消息总线 发送 -> 回调 延迟压测</br>
+ * 多个生产者按固定间隔发送携带发送时间的消息，多个消费者在回调中记录 当前时间 - 发送时间 后确认，</br>
+ * 对比进程内环形队列、基于锁和条件的 aqs.BoundedBuffer 交接，以及 RabbitMQ (启动参数带 rabbitmq 时，需要本地broker)。
+ */
+@Slf4j
+public class MessageBusLatencyBenchmark {
+    private static final int PRODUCERS = 4;
+    private static final int CONSUMERS = 4;
+    private static final int MESSAGES_PER_PRODUCER = 250_000;
+    private static final long SEND_INTERVAL_NANOS = 5_000;
+    private static final int PREFETCH = 64;
+    private static final String EXCHANGE = "bench_exchange";
+    private static final String QUEUE = "bench_queue";
+    private static final String ROUTING_KEY = "bench";
+
+    public static void main(String[] args) throws Exception {
+        int total = PRODUCERS * MESSAGES_PER_PRODUCER;
+        // 第一轮预热
+        for (int round = 0; round < 2; round++) {
+            try (MessageBus bus = new RingBufferMessageBus(Config.RING_BUFFER_CAPACITY)) {
+                report("进程内环形队列", runBus(bus, total), round == 0);
+            }
+            report("BoundedBuffer", runBoundedBuffer(total), round == 0);
+        }
+        if (args.length > 0 && "rabbitmq".equals(args[0])) {
+            try (MessageBus bus = new RabbitMessageBus(Config.MQ_HOST, Config.MQ_PORT, CONSUMERS, PRODUCERS)) {
+                report("RabbitMQ", runBus(bus, total), false);
+            }
+        }
+    }
+
+    private static long[] runBus(MessageBus bus, int total) throws Exception {
+        bus.declareExchange(EXCHANGE);
+        bus.declareQueue(QUEUE, null, null);
+        bus.bindQueue(QUEUE, EXCHANGE, ROUTING_KEY);
+        long[] latencies = new long[total];
+        AtomicInteger received = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1);
+        bus.subscribe(QUEUE, PREFETCH, CONSUMERS, acknowledger -> (body, deliveryTag) -> {
+            long latency = System.nanoTime() - readLong(body);
+            acknowledger.ack(deliveryTag, false);
+            int index = received.getAndIncrement();
+            latencies[index] = latency;
+            if (index == total - 1) {
+                done.countDown();
+            }
+        });
+        runProducers(body -> bus.publish(EXCHANGE, ROUTING_KEY, body, null));
+        done.await();
+        return latencies;
+    }
+
+    private static long[] runBoundedBuffer(int total) throws Exception {
+        BoundedBuffer buffer = new BoundedBuffer();
+        long[] latencies = new long[total];
+        AtomicInteger received = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1);
+        for (int c = 0; c < CONSUMERS; c++) {
+            Thread consumer = new Thread(() -> {
+                try {
+                    while (true) {
+                        long latency = System.nanoTime() - readLong((byte[]) buffer.take());
+                        int index = received.getAndIncrement();
+                        latencies[index] = latency;
+                        if (index == total - 1) {
+                            done.countDown();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            consumer.setDaemon(true);
+            consumer.start();
+        }
+        // BoundedBuffer 保存对象引用，每条消息要一个新数组
+        runProducers(body -> buffer.put(body.clone()));
+        done.await();
+        return latencies;
+    }
+
+    @FunctionalInterface
+    private interface Sender {
+        void send(byte[] body) throws Exception;
+    }
+
+    private static void runProducers(Sender sender) throws InterruptedException {
+        CountDownLatch finished = new CountDownLatch(PRODUCERS);
+        for (int p = 0; p < PRODUCERS; p++) {
+            new Thread(() -> {
+                byte[] body = new byte[8];
+                long next = System.nanoTime();
+                try {
+                    for (int i = 0; i < MESSAGES_PER_PRODUCER; i++) {
+                        // 不忙等，把CPU让给消费者 (核数少时忙等的生产者会饿死消费者)
+                        long wait = next - System.nanoTime();
+                        if (wait > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                        writeLong(body, System.nanoTime());
+                        sender.send(body);
+                        next += SEND_INTERVAL_NANOS;
+                    }
+                } catch (Exception e) {
+                    log.error("发送失败", e);
+                } finally {
+                    finished.countDown();
+                }
+            }).start();
+        }
+        finished.await();
+    }
+
+    private static void report(String name, long[] latencies, boolean warmup) {
+        if (warmup) {
+            return;
+        }
+        Arrays.sort(latencies);
+        log.info("{}: {} 条消息, 延迟 p50={} us, p99={} us, p99.9={} us, max={} us", name, latencies.length,
+                micros(latencies, 0.50), micros(latencies, 0.99), micros(latencies, 0.999),
+                latencies[latencies.length - 1] / 1000.0);
+    }
+
+    private static double micros(long[] sorted, double quantile) {
+        return sorted[(int) Math.min(sorted.length - 1, quantile * sorted.length)] / 1000.0;
+    }
+
+    private static void writeLong(byte[] body, long value) {
+        for (int i = 7; i >= 0; i--) {
+            body[i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static long readLong(byte[] body) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (body[i] & 0xFF);
+        }
+        return value;
+    }
+}
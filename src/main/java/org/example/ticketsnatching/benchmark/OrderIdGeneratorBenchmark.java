@@ -0,0 +1,79 @@
+package org.example.ticketsnatching.benchmark;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.ticketsnatching.OrderIdGenerator;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * 订单ID生成压测</br>
+ * 多线程比较 UUID截取、全局 AtomicLong 自增、雪花算法生成器 的吞吐量，</br>
+ * 并检查雪花算法生成的ID全部唯一、为正数。
+ */
+@Slf4j
+public class OrderIdGeneratorBenchmark {
+    private static final int THREADS = 8;
+    private static final int IDS_PER_THREAD = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        AtomicLong sequence = new AtomicLong();
+        OrderIdGenerator generator = new OrderIdGenerator(1);
+        for (int round = 0; round < 3; round++) {
+            run("UUID截取", () -> UUID.randomUUID().toString().substring(0, 8).hashCode(), null);
+            run("AtomicLong自增", sequence::incrementAndGet, null);
+            long[][] ids = new long[THREADS][IDS_PER_THREAD];
+            run("雪花算法", generator::nextId, ids);
+            checkUnique(ids);
+        }
+    }
+
+    private static void run(String name, LongSupplier supplier, long[][] sink) throws InterruptedException {
+        CountDownLatch startSignal = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        long[] blackhole = new long[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int threadIndex = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    startSignal.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                long sum = 0;
+                for (int i = 0; i < IDS_PER_THREAD; i++) {
+                    long id = supplier.getAsLong();
+                    if (sink != null) {
+                        sink[threadIndex][i] = id;
+                    }
+                    sum += id;
+                }
+                blackhole[threadIndex] = sum;
+            });
+            threads[t].start();
+        }
+        long start = System.nanoTime();
+        startSignal.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        log.info("{}: {} 个线程，吞吐量 {} 个/秒 ({})", name, THREADS,
+                String.format("%,.0f", (double) THREADS * IDS_PER_THREAD * 1e9 / elapsed), Arrays.stream(blackhole).sum() & 1);
+    }
+
+    private static void checkUnique(long[][] ids) {
+        long[] all = Arrays.stream(ids).flatMapToLong(Arrays::stream).sorted().toArray();
+        int duplicates = 0;
+        for (int i = 1; i < all.length; i++) {
+            if (all[i] == all[i - 1]) {
+                duplicates++;
+            }
+        }
+        log.info("雪花算法: {} 个ID，重复 {} 个，最小ID {}，节点号 {}", all.length, duplicates, all[0], OrderIdGenerator.nodeOf(all[0]));
+    }
+}
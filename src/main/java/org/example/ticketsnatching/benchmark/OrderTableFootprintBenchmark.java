@@ -0,0 +1,45 @@
+package org.example.ticketsnatching.benchmark;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.ticketsnatching.DatabaseManager;
+import org.example.ticketsnatching.DatabaseManager.OrderTableType;
+
+/**
+ * 订单表堆占用对比</br>
+ * 分别用 MAP 和 COMPACT 订单表写入同样数量的订单，GC后比较堆使用量的增量，得到每个订单的平均字节数。</br>
+ * 每个订单一个不同的用户 (限购一件时的常态)，用户ID字典的开销不会被多个订单分摊。</br>
+ * 堆增量包含订单二级索引 (按用户、按状态)，两种订单表都要维护，它占了每个订单的一大半。</br>
+ * 订单数不超过 Config.COMPACT_ORDER_TABLE_CAPACITY 时紧凑订单表只有一段，结果不含扩容的空闲槽位。建议运行参数: -Xmx2g
+ */
+@Slf4j
+public class OrderTableFootprintBenchmark {
+    private static final int ORDERS = 1_000_000;
+    private static final int PRODUCTS = 100;
+
+    public static void main(String[] args) throws InterruptedException {
+        for (OrderTableType type : OrderTableType.values()) {
+            for (int p = 0; p < PRODUCTS; p++) {
+                DatabaseManager.initProduct("product-" + p, Integer.MAX_VALUE);
+            }
+            // 紧凑订单表创建时就分配好数组，所以在创建之前取基准
+            long before = usedHeap();
+            DatabaseManager.setOrderTableType(type);
+            for (int i = 0; i < ORDERS; i++) {
+                DatabaseManager.createOrderInDB(DatabaseManager.nextOrderId(), "product-" + i % PRODUCTS, "user-" + i);
+            }
+            long after = usedHeap();
+            log.info("订单表: {}, 订单数: {}, 堆增量: {} MB, 平均每个订单: {} 字节",
+                    type, ORDERS, (after - before) / (1024 * 1024), (after - before) / ORDERS);
+            DatabaseManager.clear();
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(200);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,57 @@
+package org.example.ticketsnatching.benchmark;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.ticketsnatching.Config;
+import org.example.ticketsnatching.DatabaseManager;
+import org.example.ticketsnatching.OrderStatus;
+import org.example.ticketsnatching.SnapshotManager;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 重启恢复耗时压测</br>
+ * 写入 ORDERS 个订单后拍快照，再写入一段日志尾部，然后清空内存模拟重启，统计 加载快照 + 重放日志尾部 的耗时。</br>
+ * 第一个参数为快照中的订单数 (默认 ORDERS)，对象订单表和紧凑订单表 (Config.ORDER_TABLE_TYPE) 都可以恢复任意数量的订单。</br>
+ * 数据写在 Config.JOURNAL_DIR 目录，运行前请清空该目录。千万级订单建议运行参数: -Xms4g -Xmx4g (紧凑订单表)，</br>
+ * 初始堆太小时恢复过程中会随着堆扩张频繁GC，耗时成倍增加
+ */
+@Slf4j
+public class RecoveryBenchmark {
+    private static final int ORDERS = 10_000_000;
+    private static final int TAIL_ORDERS = 100_000;
+    private static final String PRODUCT_ID = "notebook";
+
+    // 可选参数: 快照中的订单数，默认 ORDERS
+    public static void main(String[] args) throws Exception {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : ORDERS;
+        SnapshotManager.recover();
+        DatabaseManager.initProduct(PRODUCT_ID, Integer.MAX_VALUE);
+        createOrders(orders);
+        SnapshotManager.takeSnapshot();
+        createOrders(TAIL_ORDERS);
+        int stockBefore = DatabaseManager.getStock(PRODUCT_ID);
+        SnapshotManager.close();
+
+        // 模拟重启：新进程的堆里没有上一轮的数据，先回收掉，不计入恢复耗时
+        DatabaseManager.clear();
+        System.gc();
+        long start = System.nanoTime();
+        SnapshotManager.recover();
+        long elapsed = System.nanoTime() - start;
+        log.info("恢复 {} 个订单耗时 {} ms，库存恢复前 {}，恢复后 {}", orders + TAIL_ORDERS,
+                TimeUnit.NANOSECONDS.toMillis(elapsed), stockBefore, DatabaseManager.getStock(PRODUCT_ID));
+        SnapshotManager.close();
+        log.info("数据目录: {}", Config.JOURNAL_DIR);
+    }
+
+    // 每10个订单取消1个，验证恢复后库存计算正确
+    private static void createOrders(int count) {
+        for (int i = 0; i < count; i++) {
+            long orderId = DatabaseManager.nextOrderId();
+            DatabaseManager.createOrderInDB(orderId, PRODUCT_ID, "user-" + i % 100_000);
+            if (i % 10 == 0 && DatabaseManager.transitionOrderStatus(orderId, OrderStatus.AWAITING_PAYMENT, OrderStatus.CANCELLED)) {
+                DatabaseManager.increaseStockInDB(PRODUCT_ID);
+            }
+        }
+    }
+}
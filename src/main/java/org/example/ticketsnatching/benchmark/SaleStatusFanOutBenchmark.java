@@ -0,0 +1,219 @@
+package org.example.ticketsnatching.benchmark;
+
+import com.sun.management.UnixOperatingSystemMXBean;
+import lombok.extern.slf4j.Slf4j;
+import org.example.ticketsnatching.Config;
+import org.example.ticketsnatching.SaleStatusFrame;
+import org.example.ticketsnatching.WebSocketManager;
+import org.java_websocket.WebSocket;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 售卖状态广播扇出压测</br>
+ * 在本机建立大量WebSocket连接 (默认 10 万)，每轮向所有连接广播一次售卖状态，统计两个耗时：</br>
+ * 1. 广播调用：{@link WebSocketManager#broadcastFrame} 把预编码帧放进所有连接发送队列的耗时 (推送线程被占用的时间)</br>
+ * 2. 全部送达：从开始广播到所有客户端都收到完整帧的耗时</br>
+ * 作为对比，另外按连接调用 send(文本) 广播 (每个连接各自编码一次帧)。</br>
+ * 客户端是不起线程的NIO连接，只做握手和统计收到的字节数，由一个线程读取全部连接。</br>
+ * </br>
+ * 参数 (key=value)：connections 连接数，rounds 每种方式的广播轮数，port 服务端端口。</br>
+ * 每个连接在本进程中占两个文件描述符，需要 ulimit -n 大于连接数的两倍；</br>
+ * 超过一个地址的临时端口数时客户端依次绑定 127.0.0.2、127.0.0.3 ... 作为源地址。建议把日志级别调到 WARN。
+ */
+@Slf4j
+public class SaleStatusFanOutBenchmark {
+    private static final String PRODUCT_ID = "fanout-product";
+    // 每个源地址建立的连接数，小于系统临时端口的数量
+    private static final int CONNECTIONS_PER_SOURCE_ADDRESS = 20_000;
+    // 同时进行握手的连接数，小于服务端的等待连接队列
+    private static final int HANDSHAKE_WINDOW = 512;
+    private static final long DELIVERY_TIMEOUT_MS = 60_000;
+    private static final byte[] HANDSHAKE = ("GET / HTTP/1.1\r\n"
+            + "Host: localhost\r\n"
+            + "Upgrade: websocket\r\n"
+            + "Connection: Upgrade\r\n"
+            + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+            + "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int connections = Integer.parseInt(options.getOrDefault("connections", "100000"));
+        int rounds = Integer.parseInt(options.getOrDefault("rounds", "5"));
+        int port = Integer.parseInt(options.getOrDefault("port", String.valueOf(Config.WEBSOCKET_PORT)));
+
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof UnixOperatingSystemMXBean unix && unix.getMaxFileDescriptorCount() < connections * 2L + 1000) {
+            log.error("文件描述符上限 {} 不够建立 {} 个连接 (每个连接两个)，请调大 ulimit -n 或减少 connections",
+                    unix.getMaxFileDescriptorCount(), connections);
+            return;
+        }
+
+        WebSocketManager server = new WebSocketManager(port);
+        server.setReuseAddr(true);
+        server.setTcpNoDelay(true);
+        server.setMaxPendingConnections(HANDSHAKE_WINDOW * 2);
+        // 压测客户端不回应心跳
+        server.setConnectionLostTimeout(0);
+        server.start();
+        Thread.sleep(500);
+
+        List<SocketChannel> clients = new ArrayList<>(connections);
+        try {
+            long connectStart = System.nanoTime();
+            connect(clients, connections, port);
+            while (server.getConnections().size() < connections) {
+                Thread.sleep(10);
+            }
+            log.warn("建立 {} 个连接耗时 {} ms", connections,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectStart));
+
+            AtomicLong received = new AtomicLong();
+            Thread reader = startReader(clients, received);
+            long expected = 0;
+            SaleStatusFrame.Event[] events = {SaleStatusFrame.Event.SOLD_OUT, SaleStatusFrame.Event.RESTOCKED};
+            for (boolean encodedFrame : new boolean[]{true, false}) {
+                String mode = encodedFrame ? "预编码帧" : "按连接发送文本";
+                for (int round = 0; round < rounds; round++) {
+                    SaleStatusFrame frame = SaleStatusFrame.of(events[round % 2], PRODUCT_ID);
+                    expected += (long) frameSize(frame) * connections;
+                    long start = System.nanoTime();
+                    if (encodedFrame) {
+                        server.broadcastFrame(frame, server.getConnections());
+                    } else {
+                        for (WebSocket conn : server.getConnections()) {
+                            conn.send(frame.text());
+                        }
+                    }
+                    long enqueued = System.nanoTime();
+                    if (!awaitDelivery(received, expected)) {
+                        log.error("{} 第 {} 轮广播在 {} ms 内没有全部送达，已收到 {} / {} 字节", mode, round + 1,
+                                DELIVERY_TIMEOUT_MS, received.get(), expected);
+                        return;
+                    }
+                    long delivered = System.nanoTime();
+                    log.warn("{} 第 {} 轮：{} 个连接，广播调用 {} ms，全部送达 {} ms", mode, round + 1, connections,
+                            String.format("%.1f", (enqueued - start) / 1e6), String.format("%.1f", (delivered - start) / 1e6));
+                }
+            }
+            reader.interrupt();
+        } finally {
+            // 先停服务端 (向连接发送关闭帧需要它的选择器还开着)，再关闭客户端
+            server.stop(1000);
+            for (SocketChannel client : clients) {
+                client.close();
+            }
+        }
+    }
+
+    // 按窗口建立连接并握手：先连接并发出一批握手请求，再逐个读完响应
+    private static void connect(List<SocketChannel> clients, int connections, int port) throws IOException {
+        InetSocketAddress target = new InetSocketAddress("127.0.0.1", port);
+        ByteBuffer response = ByteBuffer.allocate(1024);
+        for (int base = 0; base < connections; base += HANDSHAKE_WINDOW) {
+            int end = Math.min(connections, base + HANDSHAKE_WINDOW);
+            for (int i = base; i < end; i++) {
+                SocketChannel channel = SocketChannel.open();
+                channel.bind(new InetSocketAddress("127.0.0." + (1 + i / CONNECTIONS_PER_SOURCE_ADDRESS), 0));
+                channel.connect(target);
+                channel.write(ByteBuffer.wrap(HANDSHAKE));
+                clients.add(channel);
+            }
+            for (int i = base; i < end; i++) {
+                readHandshakeResponse(clients.get(i), response);
+            }
+        }
+    }
+
+    // 读到响应头结束 (空行) 为止；握手响应之后服务端不会主动发送数据，不会读到帧
+    private static void readHandshakeResponse(SocketChannel channel, ByteBuffer response) throws IOException {
+        response.clear();
+        while (true) {
+            if (channel.read(response) < 0) {
+                throw new IOException("握手时连接被关闭");
+            }
+            String header = new String(response.array(), 0, response.position(), StandardCharsets.US_ASCII);
+            if (header.endsWith("\r\n\r\n")) {
+                if (!header.startsWith("HTTP/1.1 101")) {
+                    throw new IOException("握手失败: " + header);
+                }
+                return;
+            }
+        }
+    }
+
+    // 一个线程读取全部客户端连接，只累计收到的字节数
+    private static Thread startReader(List<SocketChannel> clients, AtomicLong received) throws IOException {
+        Selector selector = Selector.open();
+        for (SocketChannel client : clients) {
+            client.configureBlocking(false);
+            client.register(selector, SelectionKey.OP_READ);
+        }
+        Thread reader = new Thread(() -> {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+            try (selector) {
+                while (!Thread.currentThread().isInterrupted()) {
+                    selector.select();
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        SocketChannel channel = (SocketChannel) key.channel();
+                        int read;
+                        while ((read = channel.read(buffer.clear())) > 0) {
+                            received.addAndGet(read);
+                        }
+                        if (read < 0) {
+                            key.cancel();
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException e) {
+                log.error("读取客户端连接失败", e);
+            }
+        }, "fanout-reader");
+        reader.setDaemon(true);
+        reader.start();
+        return reader;
+    }
+
+    private static boolean awaitDelivery(AtomicLong received, long expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DELIVERY_TIMEOUT_MS);
+        while (received.get() < expected) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    // 服务端发出的文本帧：2字节帧头 (负载小于126字节) + 负载
+    private static int frameSize(SaleStatusFrame frame) {
+        return 2 + frame.text().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("参数格式应为 key=value: " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        return options;
+    }
+}
@@ -0,0 +1,242 @@
+package org.example.ticketsnatching.benchmark;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.ticketsnatching.Config;
+import org.example.ticketsnatching.DatabaseManager;
+import org.example.ticketsnatching.InMemoryStockStore;
+import org.example.ticketsnatching.LatencyHistogram;
+import org.example.ticketsnatching.MQManager;
+import org.example.ticketsnatching.OrderConsumer;
+import org.example.ticketsnatching.RedisManager;
+import org.example.ticketsnatching.RedisStockStore;
+import org.example.ticketsnatching.SeckillExecutors;
+import org.example.ticketsnatching.SeckillService;
+import org.example.ticketsnatching.SeckillMetrics;
+import org.example.ticketsnatching.StockStore;
+import org.example.ticketsnatching.TimeoutConsumer;
+import org.example.ticketsnatching.TimeoutManager;
+import org.example.ticketsnatching.WebSocketManager;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 端到端秒杀压测 (开放模型)</br>
+ * 按固定到达率发起请求：第 i 个请求的计划开始时间是 开始时间 + i / 到达率，到点就提交，不等前面的请求完成，</br>
+ * 系统变慢时请求会排队而不是少发 (闭环压测会因此少发请求，低估延迟，即协调遗漏)。</br>
+ * 响应时间从计划开始时间算起，已经修正了协调遗漏；服务时间从实际开始执行算起，两者都按结果分别记录直方图：</br>
+ * ACCEPTED (预扣减成功并发出消息)、SOLD_OUT (售罄快速失败)、REJECTED (预扣减库存不足) 等。</br>
+ * 另外记录 请求 -> 下单结果通知 (WebSocket) 的延迟，覆盖MQ、订单消费者和建单的整条链路。</br>
+ * </br>
+ * 参数 (key=value)：rate 每秒请求数，duration 持续秒数，stock 库存，report 报告路径，</br>
+ * maxAcceptedP99Ms 成功请求响应时间p99上限 (超过时以退出码1结束，用于开售前的回归检查)。</br>
+ * 库存、消息总线和执行方式使用 Config 中的配置；高到达率下建议把日志级别调到 ERROR。
+ */
+@Slf4j
+public class SeckillLoadGenerator {
+    private static final String PRODUCT_ID = "loadgen-product";
+    // 最后一个请求完成后等待下单通知的时间
+    private static final long NOTIFICATION_WAIT_MS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int rate = Integer.parseInt(options.getOrDefault("rate", "20000"));
+        int durationSeconds = Integer.parseInt(options.getOrDefault("duration", "10"));
+        int stock = Integer.parseInt(options.getOrDefault("stock", "1000"));
+        Path report = Path.of(options.getOrDefault("report", "target/seckill-load-report.json"));
+        long maxAcceptedP99Ms = Long.parseLong(options.getOrDefault("maxAcceptedP99Ms", "0"));
+
+        SeckillMetrics.init();
+        StockStore stockStore = createStockStore();
+        SeckillService seckillService = new SeckillService(stockStore);
+        MQManager.init();
+        MQManager.setPublishFailureHandler(seckillService::compensateLostOrders);
+        startConsumers(stockStore);
+        DatabaseManager.initProduct(PRODUCT_ID, stock);
+        stockStore.clearBuyers(PRODUCT_ID);
+        stockStore.setStock(PRODUCT_ID, stock);
+
+        Map<SeckillService.Outcome, LatencyHistogram> responseTimes = histograms();
+        Map<SeckillService.Outcome, LatencyHistogram> serviceTimes = histograms();
+        LatencyHistogram notificationTimes = new LatencyHistogram();
+        // 用户ID -> 计划开始时间，收到该用户的第一条订单通知时移除
+        Map<String, Long> awaitingNotification = new ConcurrentHashMap<>();
+        WebSocketManager.setNotificationObserver((userId, orderId, message) -> {
+            Long intendedStart = awaitingNotification.remove(userId);
+            if (intendedStart != null) {
+                notificationTimes.record(System.nanoTime() - intendedStart);
+            }
+        });
+
+        int requests = rate * durationSeconds;
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        // 每秒完成的请求数，用于计算峰值吞吐量 (留出排队造成的拖尾)
+        AtomicLongArray completedPerSecond = new AtomicLongArray(durationSeconds * 10 + 60);
+        CountDownLatch done = new CountDownLatch(requests);
+        ExecutorService executor = SeckillExecutors.newRequestExecutor(Math.max(1, Math.min(rate, 1000)));
+
+        log.info("[压测] 开始：到达率 {} 请求/秒，持续 {} 秒，库存 {}，执行方式 {}", rate, durationSeconds, stock, Config.EXECUTOR_MODE);
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            long intendedStart = start + i * intervalNanos;
+            long wait;
+            while ((wait = intendedStart - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            String userId = "load-user-" + i;
+            executor.execute(() -> {
+                long actualStart = System.nanoTime();
+                awaitingNotification.put(userId, intendedStart);
+                SeckillService.Outcome outcome = seckillService.placeOrder(userId, PRODUCT_ID);
+                long end = System.nanoTime();
+                if (outcome != SeckillService.Outcome.ACCEPTED) {
+                    awaitingNotification.remove(userId);
+                }
+                responseTimes.get(outcome).record(end - intendedStart);
+                serviceTimes.get(outcome).record(end - actualStart);
+                int second = (int) Math.min(TimeUnit.NANOSECONDS.toSeconds(end - start), completedPerSecond.length() - 1);
+                completedPerSecond.incrementAndGet(second);
+                done.countDown();
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(NOTIFICATION_WAIT_MS);
+        while (!awaitingNotification.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        long peak = 0;
+        for (int i = 0; i < completedPerSecond.length(); i++) {
+            peak = Math.max(peak, completedPerSecond.get(i));
+        }
+
+        String json = toJson(rate, durationSeconds, stock, requests, elapsed, peak,
+                responseTimes, serviceTimes, notificationTimes, awaitingNotification.size());
+        if (report.getParent() != null) {
+            Files.createDirectories(report.getParent());
+        }
+        Files.writeString(report, json);
+        log.info("[压测] 完成，报告已写入 {}\n{}", report.toAbsolutePath(), json);
+
+        int exitCode = 0;
+        long acceptedP99Ms = TimeUnit.NANOSECONDS.toMillis(responseTimes.get(SeckillService.Outcome.ACCEPTED).percentile(0.99));
+        if (maxAcceptedP99Ms > 0 && acceptedP99Ms > maxAcceptedP99Ms) {
+            log.error("[压测] 成功请求响应时间 p99 {} ms 超过上限 {} ms", acceptedP99Ms, maxAcceptedP99Ms);
+            exitCode = 1;
+        }
+        WebSocketManager.setNotificationObserver(null);
+        seckillService.close();
+        TimeoutManager.close();
+        MQManager.close();
+        stockStore.close();
+        if (!"memory".equals(Config.STOCK_STORE_TYPE)) {
+            RedisManager.close();
+        }
+        // 各阶段的统计打印到日志，与报告中的端到端延迟对照
+        SeckillMetrics.close();
+        System.exit(exitCode);
+    }
+
+    private static StockStore createStockStore() {
+        if ("memory".equals(Config.STOCK_STORE_TYPE)) {
+            return new InMemoryStockStore();
+        }
+        RedisManager.init();
+        return new RedisStockStore();
+    }
+
+    // 压测只需要下单链路：订单消费者和超时处理
+    private static void startConsumers(StockStore stockStore) throws Exception {
+        new Thread(new OrderConsumer()).start();
+        TimeoutConsumer timeoutConsumer = new TimeoutConsumer(stockStore);
+        if (TimeoutManager.usesTimingWheel()) {
+            TimeoutManager.start(timeoutConsumer::expireAll);
+        } else {
+            new Thread(timeoutConsumer).start();
+        }
+        Thread.sleep(1000); // 等待消费者启动
+    }
+
+    private static Map<SeckillService.Outcome, LatencyHistogram> histograms() {
+        Map<SeckillService.Outcome, LatencyHistogram> histograms = new EnumMap<>(SeckillService.Outcome.class);
+        for (SeckillService.Outcome outcome : SeckillService.Outcome.values()) {
+            histograms.put(outcome, new LatencyHistogram());
+        }
+        return histograms;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("参数格式应为 key=value: " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        return options;
+    }
+
+    private static String toJson(int rate, int durationSeconds, int stock, int requests, long elapsedNanos, long peak,
+                                 Map<SeckillService.Outcome, LatencyHistogram> responseTimes,
+                                 Map<SeckillService.Outcome, LatencyHistogram> serviceTimes,
+                                 LatencyHistogram notificationTimes, int missingNotifications) {
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\n");
+        json.append("  \"config\": {\"rate\": ").append(rate).append(", \"durationSeconds\": ").append(durationSeconds)
+                .append(", \"stock\": ").append(stock).append(", \"executorMode\": \"").append(Config.EXECUTOR_MODE)
+                .append("\", \"messageBus\": \"").append(Config.MESSAGE_BUS_TYPE)
+                .append("\", \"stockStore\": \"").append(Config.STOCK_STORE_TYPE).append("\"},\n");
+        json.append("  \"requests\": ").append(requests).append(",\n");
+        json.append("  \"elapsedMs\": ").append(TimeUnit.NANOSECONDS.toMillis(elapsedNanos)).append(",\n");
+        json.append("  \"throughputPerSecond\": ").append(String.format(Locale.ROOT, "%.1f", requests * 1e9 / elapsedNanos)).append(",\n");
+        json.append("  \"peakThroughputPerSecond\": ").append(peak).append(",\n");
+        json.append("  \"responseTime\": ");
+        appendOutcomes(json, responseTimes);
+        json.append(",\n  \"serviceTime\": ");
+        appendOutcomes(json, serviceTimes);
+        json.append(",\n  \"notificationTime\": ");
+        appendHistogram(json, notificationTimes);
+        json.append(",\n  \"missingNotifications\": ").append(missingNotifications).append("\n}\n");
+        return json.toString();
+    }
+
+    private static void appendOutcomes(StringBuilder json, Map<SeckillService.Outcome, LatencyHistogram> histograms) {
+        json.append("{");
+        boolean first = true;
+        for (Map.Entry<SeckillService.Outcome, LatencyHistogram> entry : histograms.entrySet()) {
+            json.append(first ? "\n" : ",\n").append("    \"").append(entry.getKey()).append("\": ");
+            appendHistogram(json, entry.getValue());
+            first = false;
+        }
+        json.append("\n  }");
+    }
+
+    // 延迟单位为微秒
+    private static void appendHistogram(StringBuilder json, LatencyHistogram histogram) {
+        json.append("{\"count\": ").append(histogram.count())
+                .append(", \"meanUs\": ").append(String.format(Locale.ROOT, "%.1f", histogram.mean() / 1000))
+                .append(", \"p50Us\": ").append(micros(histogram.percentile(0.50)))
+                .append(", \"p90Us\": ").append(micros(histogram.percentile(0.90)))
+                .append(", \"p99Us\": ").append(micros(histogram.percentile(0.99)))
+                .append(", \"p999Us\": ").append(micros(histogram.percentile(0.999)))
+                .append(", \"maxUs\": ").append(micros(histogram.max()))
+                .append("}");
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,91 @@
+package org.example.ticketsnatching.benchmark;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.ticketsnatching.OrderTimeoutWheel;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 订单超时时间轮压测</br>
+ * 多个线程登记百万级订单超时，再取消一半 (模拟支付/取消)，统计登记和取消的平均耗时，</br>
+ * 以及到期订单数是否正确、成批交付的批次数、最后一批相对截止时间的延迟。
+ */
+@Slf4j
+public class TimingWheelBenchmark {
+    private static final int THREADS = 4;
+    private static final int ORDERS_PER_THREAD = 500_000;
+    // 超时时间要大于登记和取消的总耗时，否则订单在取消之前就已到期
+    private static final long DELAY_MS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        AtomicLong expired = new AtomicLong();
+        AtomicLong batches = new AtomicLong();
+        AtomicLong lastBatchNanos = new AtomicLong();
+        long total = (long) THREADS * ORDERS_PER_THREAD;
+        CountDownLatch allExpired = new CountDownLatch(1);
+        // 订单ID预先生成，不计入登记和取消的耗时
+        long[][] orderIds = new long[THREADS][ORDERS_PER_THREAD];
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 0; i < ORDERS_PER_THREAD; i++) {
+                orderIds[t][i] = (long) t * ORDERS_PER_THREAD + i;
+            }
+        }
+
+        try (OrderTimeoutWheel wheel = new OrderTimeoutWheel(10, 2048, batch -> {
+            batches.incrementAndGet();
+            lastBatchNanos.set(System.nanoTime());
+            if (expired.addAndGet(batch.size()) == total / 2) {
+                allExpired.countDown();
+            }
+        })) {
+            long scheduleStart = System.nanoTime();
+            runParallel(t -> {
+                for (int i = 0; i < ORDERS_PER_THREAD; i++) {
+                    wheel.schedule(orderIds[t][i], DELAY_MS);
+                }
+            });
+            long scheduleEnd = System.nanoTime();
+            log.info("{} 个线程登记 {} 个订单超时，吞吐量 {} 次/秒，等待超时 {} 个", THREADS, total,
+                    String.format("%,.0f", total * 1e9 / (scheduleEnd - scheduleStart)), wheel.pendingCount());
+
+            long cancelStart = System.nanoTime();
+            // 取消偶数编号的订单
+            runParallel(t -> {
+                for (int i = 0; i < ORDERS_PER_THREAD; i += 2) {
+                    wheel.cancel(orderIds[t][i]);
+                }
+            });
+            long cancelEnd = System.nanoTime();
+            log.info("{} 个线程取消 {} 个订单超时，吞吐量 {} 次/秒，等待超时 {} 个", THREADS, total / 2,
+                    String.format("%,.0f", total / 2 * 1e9 / (cancelEnd - cancelStart)), wheel.pendingCount());
+
+            if (!allExpired.await(DELAY_MS * 5, TimeUnit.MILLISECONDS)) {
+                log.error("等待到期超时，已到期 {} 个，预期 {} 个", expired.get(), total / 2);
+                return;
+            }
+            // 等待可能多出的到期批次 (取消失效时会出现)
+            Thread.sleep(200);
+            long lateMs = TimeUnit.NANOSECONDS.toMillis(lastBatchNanos.get() - scheduleEnd - TimeUnit.MILLISECONDS.toNanos(DELAY_MS));
+            log.info("到期 {} 个 (预期 {} 个)，共 {} 批，最后一批比最晚截止时间晚 {} ms",
+                    expired.get(), total / 2, batches.get(), lateMs);
+        }
+    }
+
+    private interface Task {
+        void run(int thread);
+    }
+
+    private static void runParallel(Task task) throws InterruptedException {
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int threadIndex = t;
+            threads[t] = new Thread(() -> task.run(threadIndex));
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+}
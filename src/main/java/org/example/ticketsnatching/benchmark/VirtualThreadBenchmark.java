@@ -0,0 +1,196 @@
+package org.example.ticketsnatching.benchmark;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.ticketsnatching.Config;
+import org.example.ticketsnatching.InMemoryStockStore;
+import org.example.ticketsnatching.MQManager;
+import org.example.ticketsnatching.MessageBus;
+import org.example.ticketsnatching.RingBufferMessageBus;
+import org.example.ticketsnatching.SeckillExecutors;
+import org.example.ticketsnatching.SeckillService;
+import org.example.ticketsnatching.SoldOutIndex;
+import org.example.ticketsnatching.StockStore;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 平台线程池与虚拟线程执行秒杀请求的对比压测</br>
+ * 每个请求调用 {@link SeckillService#placeOrder}，库存使用进程内库存 ({@link InMemoryStockStore})，</br>
+ * 下单消息发到进程内环形队列 ({@link RingBufferMessageBus})，由一个只确认不处理的消费者取走。</br>
+ * 进程内库存没有网络I/O，预扣减和撤销前可以加一次模拟的Redis往返 (受 REDIS_MAX_CONCURRENCY 个许可限制)，</br>
+ * 两种执行方式 ({@link SeckillExecutors.Mode}) 的差别主要来自请求阻塞在I/O上时是否占住线程。</br>
+ * 一次性提交 1万 ~ 100万 个并发请求，库存等于请求数 (每个请求都走完预扣减和发送消息)，</br>
+ * 比较吞吐量、请求延迟 (提交到完成) 和峰值线程数，并核对成功请求数与收到的下单消息数。</br>
+ * </br>
+ * 参数 (key=value)：ioMicros 模拟的Redis往返微秒数，0 表示不模拟。</br>
+ * 100万个请求建议使用 -Xmx2g 运行，并把日志级别调到 ERROR (placeOrder 每个请求都会打印日志)。
+ */
+@Slf4j
+public class VirtualThreadBenchmark {
+    private static final int[] REQUEST_COUNTS = {10_000, 100_000, 1_000_000};
+    private static final int PLATFORM_THREADS = 200;
+    private static final String PRODUCT_ID = "vt-product";
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        long ioNanos = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(options.getOrDefault("ioMicros", "1000")));
+        for (int requests : REQUEST_COUNTS) {
+            for (SeckillExecutors.Mode mode : SeckillExecutors.Mode.values()) {
+                run(mode, requests, ioNanos);
+            }
+        }
+    }
+
+    private static void run(SeckillExecutors.Mode mode, int requests, long ioNanos) throws Exception {
+        InMemoryStockStore memoryStore = new InMemoryStockStore();
+        StockStore stockStore = ioNanos > 0 ? new RemoteStockStore(memoryStore, ioNanos) : memoryStore;
+        SeckillService seckillService = new SeckillService(stockStore, null);
+        stockStore.setStock(PRODUCT_ID, requests);
+
+        long[] latencies = new long[requests];
+        AtomicIntegerArray outcomes = new AtomicIntegerArray(SeckillService.Outcome.values().length);
+        AtomicLong ordersReceived = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(requests);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        try (MessageBus bus = new RingBufferMessageBus(Config.RING_BUFFER_CAPACITY)) {
+            MQManager.init(bus);
+            // 下单消息只计数并确认：压测只看请求路径，不计入建单的开销
+            MQManager.startConsumer(Config.ORDER_QUEUE, Config.ORDER_CONSUMER_PREFETCH, 1,
+                    acknowledger -> (body, deliveryTag) -> {
+                        ordersReceived.incrementAndGet();
+                        acknowledger.ack(deliveryTag, false);
+                    });
+            ExecutorService executor = SeckillExecutors.newRequestExecutor(mode, PLATFORM_THREADS);
+            threads.resetPeakThreadCount();
+
+            long start = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                final int index = i;
+                final String userId = "vt-user-" + i;
+                final long submitted = System.nanoTime();
+                executor.execute(() -> {
+                    SeckillService.Outcome outcome = seckillService.placeOrder(userId, PRODUCT_ID);
+                    latencies[index] = System.nanoTime() - submitted;
+                    outcomes.incrementAndGet(outcome.ordinal());
+                    done.countDown();
+                });
+            }
+            done.await();
+            long elapsed = System.nanoTime() - start;
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+
+            int accepted = outcomes.get(SeckillService.Outcome.ACCEPTED.ordinal());
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (ordersReceived.get() < accepted && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            Arrays.sort(latencies);
+            log.info("{}: {} 个请求，吞吐量 {} 请求/秒，延迟 p50 {} ms / p99 {} ms / 最大 {} ms，峰值平台线程 {}，"
+                            + "成功 {} 个，收到下单消息 {} 条",
+                    mode, requests, String.format("%,.0f", requests * 1e9 / elapsed),
+                    toMillis(latencies[requests / 2]), toMillis(latencies[(int) (requests * 0.99)]),
+                    toMillis(latencies[requests - 1]), threads.getPeakThreadCount(), accepted, ordersReceived.get());
+            if (accepted != requests) {
+                log.warn("{}: 有 {} 个请求没有成功，结果分布 {}", mode, requests - accepted, outcomes);
+            }
+        } finally {
+            seckillService.close();
+        }
+    }
+
+    /**
+     * 模拟远程库存：预扣减和撤销前先做一次阻塞的Redis往返，并发数受 REDIS_MAX_CONCURRENCY 个许可限制</br>
+     * (与 RedisManager 的连接许可相同)，其余操作直接交给进程内库存。
+     */
+    private static final class RemoteStockStore implements StockStore {
+        private final StockStore delegate;
+        private final long roundTripNanos;
+        private final Semaphore permits = new Semaphore(Config.REDIS_MAX_CONCURRENCY);
+
+        RemoteStockStore(StockStore delegate, long roundTripNanos) {
+            this.delegate = delegate;
+            this.roundTripNanos = roundTripNanos;
+        }
+
+        private void roundTrip() {
+            permits.acquireUninterruptibly();
+            try {
+                LockSupport.parkNanos(roundTripNanos);
+            } finally {
+                permits.release();
+            }
+        }
+
+        @Override
+        public void setStock(String productId, int stock) {
+            delegate.setStock(productId, stock);
+        }
+
+        @Override
+        public DeductResult tryDeduct(String userId, String productId) {
+            roundTrip();
+            return delegate.tryDeduct(userId, productId);
+        }
+
+        @Override
+        public boolean hasPurchased(String userId, String productId) {
+            return delegate.hasPurchased(userId, productId);
+        }
+
+        @Override
+        public void cancelDeduct(String userId, String productId) {
+            roundTrip();
+            delegate.cancelDeduct(userId, productId);
+        }
+
+        @Override
+        public void returnStock(String productId, int count) {
+            delegate.returnStock(productId, count);
+        }
+
+        @Override
+        public void returnStock(String productId, Collection<String> buyers) {
+            delegate.returnStock(productId, buyers);
+        }
+
+        @Override
+        public void clearBuyers(String productId) {
+            delegate.clearBuyers(productId);
+        }
+
+        @Override
+        public SoldOutIndex soldOutIndex() {
+            return delegate.soldOutIndex();
+        }
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("参数格式应为 key=value: " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        return options;
+    }
+}